@@ -23,18 +23,30 @@ import android.net.Uri;
 
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
-import com.android.volley.toolbox.Volley;
 
+import java.io.File;
 import java.util.ArrayList;
 
+import de.ba.railroadclient.BackgroundFileWriter;
+import de.ba.railroadclient.CommandJournal;
+import de.ba.railroadclient.CommandLatency;
+import de.ba.railroadclient.DiscoveryCache;
+import de.ba.railroadclient.DiscoveryService;
+import de.ba.railroadclient.LocomotiveChange;
+import de.ba.railroadclient.LocomotiveField;
+import de.ba.railroadclient.LocomotiveFrameRenderer;
+import de.ba.railroadclient.LocomotiveFleetProxy;
 import de.ba.railroadclient.LocomotiveJSONProxy;
 import de.ba.railroadclient.LocomotiveListAdapter;
+import de.ba.railroadclient.LocomotivePrefetcher;
+import de.ba.railroadclient.MainThreadMonitor;
+import de.ba.railroadclient.RequestQueueFactory;
 import de.ba.railroadclient.SwitchJSONProxy;
 import model.Locomotive;
 import model.LocomotiveServer;
 import model.SwitchGroup;
 
-public class MainActivity extends AppCompatActivity implements LocomotiveJSONProxy.LocomotiveListener, SwitchJSONProxy.SwitchListener {
+public class MainActivity extends AppCompatActivity implements LocomotiveJSONProxy.LocomotiveFieldListener, SwitchJSONProxy.SwitchListener {
 
     /**
      * Locomotive to display
@@ -46,6 +58,11 @@ public class MainActivity extends AppCompatActivity implements LocomotiveJSONPro
      */
     private static String RAILROAD_SERVER = "http://dv-git01.dv.ba-dresden.local:8095/locomotive";
 
+    /**
+     * Number of locomotives at the top of the list which are read in the background
+     */
+    private static final int PREFETCH_COUNT = 3;
+
     /**
      * URL of the RailroadServlet. This servlet knows all active LocomotiveServers
      */
@@ -54,14 +71,87 @@ public class MainActivity extends AppCompatActivity implements LocomotiveJSONPro
     private SwitchJSONProxy switchGroup = null;
 
 
+    /**
+     * true while the user drags the speed slider. Updates from the server must not move the
+     * slider meanwhile.
+     */
+    private boolean speedTracking = false;
+
+    /**
+     * Server lists and locomotives of the last run
+     */
+    private DiscoveryCache discoveryCache;
+
+    /**
+     * Commands which could not be sent
+     */
+    private CommandJournal commandJournal;
+
+    /**
+     * Measures stalls of the main thread, null unless the app is built with -PmainThreadMonitor
+     */
+    private MainThreadMonitor mainThreadMonitor;
+
+    /**
+     * Write the summaries of the command latencies and of the main thread monitor
+     */
+    private BackgroundFileWriter latencyWriter;
+
+    private BackgroundFileWriter mainThreadWriter;
+
     private ArrayList<View> CodeEntry = new ArrayList<View>();
     private ArrayList<View> UIElements = new ArrayList<View>();
 
+    /**
+     * Views which show the locomotive, looked up once in {@link #onCreate(Bundle)}
+     */
+    private TextView lightView;
+    private TextView soundView;
+    private TextView smokeView;
+    private TextView trainView;
+    private TextView directionView;
+    private TextView speedView;
+
+    private Switch hornSwitch;
+    private Switch soundSwitch;
+    private Switch lightSwitch;
+    private Switch smokeSwitch;
+
+    private Button forward;
+    private Button backward;
+
+    private SeekBar speedSlider;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        // find the hot paths which make the control screen stutter
+        if (BuildConfig.MAIN_THREAD_MONITOR) {
+            mainThreadMonitor = new MainThreadMonitor();
+            mainThreadWriter = new BackgroundFileWriter(new File(getFilesDir(), "main-thread.tsv"));
+        }
+        latencyWriter = new BackgroundFileWriter(new File(getFilesDir(), "command-latency.tsv"));
+
+        // the views of the locomotive are updated often, so they are looked up only once
+        lightView = (TextView) findViewById(R.id.stat2);
+        soundView = (TextView) findViewById(R.id.stat4);
+        smokeView = (TextView) findViewById(R.id.stat6);
+        trainView = (TextView) findViewById(R.id.stat8);
+        directionView = (TextView) findViewById(R.id.stat10);
+        speedView = (TextView) findViewById(R.id.stat12);
+
+        hornSwitch = (Switch) findViewById(R.id.horn);
+        soundSwitch = (Switch) findViewById(R.id.sound);
+        lightSwitch = (Switch) findViewById(R.id.light);
+        smokeSwitch = (Switch) findViewById(R.id.smoke);
+
+        forward = (Button) findViewById(R.id.forward);
+        backward = (Button) findViewById(R.id.backward);
+
+        speedSlider = (SeekBar) findViewById(R.id.speedSlider);
+
         // the two UI parts, code entry and the control UI get added to different lists so their
         // visibility can be toggled
         CodeEntry.add(findViewById(R.id.locomotiveSpinner));
@@ -97,16 +187,35 @@ public class MainActivity extends AppCompatActivity implements LocomotiveJSONPro
             // toast.show();
         };
 
-        // create a request que for HTTP POST and GET
-        RequestQueue requestQueue = Volley.newRequestQueue(this);
+        // create a request que for HTTP POST and GET, shared by all proxies and adapters
+        RequestQueue requestQueue = new RequestQueueFactory().create(this);
+
+        // all server lists are read by one service, adapters for the same list share its results
+        // the lists and locomotives of the last run are shown until the servers have answered
+        discoveryCache = new DiscoveryCache(new File(getCacheDir(), "discovery-cache.json"));
+        DiscoveryService discoveryService = new DiscoveryService(requestQueue);
+        discoveryService.setDiscoveryCache(discoveryCache);
 
         // Adapter for the locomotiveSpinner view element. If we add or remove a LocomotiveServer
         // here, the view will be updated and the user can select this server to control a locomotive
-        LocomotiveListAdapter adapter = new LocomotiveListAdapter(this, RAILROAD_SERVER, requestQueue, locomotiveErrorListener);
+        LocomotiveListAdapter adapter = new LocomotiveListAdapter(this, RAILROAD_SERVER, discoveryService, locomotiveErrorListener);
+
+        // the first locomotives of the list are read in the background, so they are shown at once
+        LocomotivePrefetcher prefetcher = new LocomotivePrefetcher(new LocomotiveFleetProxy(requestQueue, null), PREFETCH_COUNT);
+        prefetcher.setDiscoveryCache(discoveryCache);
+        adapter.setPrefetcher(prefetcher);
         Spinner locomotiveSpinner = (Spinner) findViewById(R.id.locomotiveSpinner);
         locomotiveSpinner.setAdapter(adapter);
 
-        locomotive = new LocomotiveJSONProxy(requestQueue, locomotiveErrorListener, this);
+        // commands which could not be sent right before a restart are sent again, except
+        // speed and direction
+        commandJournal = new CommandJournal(new File(getFilesDir(), "command-journal.json"));
+        commandJournal.replay(requestQueue);
+
+        locomotive = new LocomotiveJSONProxy(requestQueue, locomotiveErrorListener, null);
+        // the views are updated at most once per frame
+        locomotive.setLocomotiveFieldListener(new LocomotiveFrameRenderer(this));
+        locomotive.setCommandJournal(commandJournal);
         locomotive.setLocomotiveServer(null);
 
         locomotiveSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
@@ -114,7 +223,7 @@ public class MainActivity extends AppCompatActivity implements LocomotiveJSONPro
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
                 // get the current locomotive server
                 LocomotiveServer locomotiveServer = (LocomotiveServer) parent.getAdapter().getItem(position);
-                locomotive.setLocomotiveServer(locomotiveServer);
+                locomotive.setLocomotiveServer(locomotiveServer, prefetcher.getSnapshot(locomotiveServer));
 
                 Context context = getApplicationContext();
                 CharSequence text = "Verbunden mit" + locomotiveServer.getRestURL();
@@ -145,6 +254,39 @@ public class MainActivity extends AppCompatActivity implements LocomotiveJSONPro
 
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        if (mainThreadMonitor != null) {
+            mainThreadMonitor.start();
+        }
+    }
+
+    /**
+     * Write the command latencies and main thread stalls measured so far, so they can be
+     * pulled from the device
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        // show this locomotive at once after the next start
+        if (locomotive.getLocomotiveServer() != null) {
+            discoveryCache.putLocomotive(locomotive.getLocomotiveServer().getRestURL(), locomotive.getPOJO());
+        }
+
+        // all files are written on a background thread
+        discoveryCache.save();
+        commandJournal.flush();
+        latencyWriter.write(CommandLatency.getInstance().getSummary());
+
+        if (mainThreadMonitor != null) {
+            mainThreadMonitor.stop();
+            mainThreadWriter.write(mainThreadMonitor.getSummary());
+        }
+    }
+
     /**
      *
      * @param timer
@@ -203,23 +345,24 @@ public class MainActivity extends AppCompatActivity implements LocomotiveJSONPro
         seekBar.setOnSeekBarChangeListener(
                 new SeekBar.OnSeekBarChangeListener() {
 
-                    int speed = 0;
-
                     @Override
                     public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                        // stream the speed while dragging, the proxy sends at most one
+                        // update at a time and always the latest value
                         if (fromUser) {
-                            speed = progress;
+                            locomotive.setSpeed(progress);
                         }
                     }
 
                     @Override
                     public void onStartTrackingTouch(SeekBar seekBar) {
-
+                        speedTracking = true;
                     }
 
                     @Override
                     public void onStopTrackingTouch(SeekBar seekBar) {
-                        locomotive.setSpeed((speed));
+                        speedTracking = false;
+                        locomotive.setSpeed(seekBar.getProgress());
                     }
                 }
         );
@@ -232,11 +375,13 @@ public class MainActivity extends AppCompatActivity implements LocomotiveJSONPro
         timer.setOnChronometerTickListener(new Chronometer.OnChronometerTickListener() {
                @Override
                public void onChronometerTick(Chronometer chronometer) {
+                   MainThreadMonitor.mark(MainThreadMonitor.Source.TIMER);
+
                    // toggle the UI when the timer reaches 0
                    if(Math.floor((SystemClock.elapsedRealtime() - chronometer.getBase()) / 1000) == 0.0){
 
-                       // set speed to 0 when user loses control
-                       locomotive.setSpeed(0);
+                       // stop the locomotive when user loses control
+                       locomotive.emergencyStop();
 
                        for (View element : UIElements) {
                            element.setVisibility(View.INVISIBLE);
@@ -251,77 +396,57 @@ public class MainActivity extends AppCompatActivity implements LocomotiveJSONPro
     }
 
     /**
-     * Update the content of all GUI elements with the <code>locomotive</code>
+     * Update the GUI elements of the changed fields, called at most once per frame by the
+     * {@link LocomotiveFrameRenderer}
      *
      * @param locomotive locomotive retreived from server
+     * @param change     fields changed since the last call
      */
     @Override
-    public void locomotiveChanged(Locomotive locomotive) {
-        TextView lightView = (TextView) findViewById(R.id.stat2);
-        TextView soundView = (TextView) findViewById(R.id.stat4);
-        TextView smokeView = (TextView) findViewById(R.id.stat6);
-        TextView trainView = (TextView) findViewById(R.id.stat8);
-        TextView directionView = (TextView) findViewById(R.id.stat10);
-        TextView speedView = (TextView) findViewById(R.id.stat12);
-
-        Switch hornSwitch = (Switch) findViewById(R.id.horn);
-        Switch soundSwitch = (Switch) findViewById(R.id.sound);
-        Switch lightSwitch = (Switch) findViewById(R.id.light);
-        Switch smokeSwitch = (Switch) findViewById(R.id.smoke);
-
-        Button forward = (Button) findViewById(R.id.forward);
-        Button backward = (Button) findViewById(R.id.backward);
-
-        SeekBar speedSlider = (SeekBar) findViewById(R.id.speedSlider);
-
-
-        if(locomotive.isHeadLight()) {
-            lightView.setText("An");
-            lightSwitch.setChecked(true);
-        } else{
-            lightView.setText("Aus");
-            lightSwitch.setChecked(false);
+    public void locomotiveFieldsChanged(Locomotive locomotive, LocomotiveChange change) {
+        // only the views of the changed fields are updated
+        if (change.contains(LocomotiveField.HEAD_LIGHT)) {
+            lightView.setText(locomotive.isHeadLight() ? "An" : "Aus");
+            lightSwitch.setChecked(locomotive.isHeadLight());
         }
 
-        if(locomotive.isHornSound()) {
-            soundView.setText("An");
-            hornSwitch.setChecked(true);
-        } else{
-            soundView.setText("Aus");
-            hornSwitch.setChecked(false);
+        if (change.contains(LocomotiveField.HORN_SOUND)) {
+            hornSwitch.setChecked(locomotive.isHornSound());
         }
 
-        if(locomotive.isDrivingSound()) {
-            soundView.setText("An");
-            soundSwitch.setChecked(true);
-        } else{
-            soundView.setText("Aus");
-            soundSwitch.setChecked(false);
+        if (change.contains(LocomotiveField.DRIVING_SOUND)) {
+            soundView.setText(locomotive.isDrivingSound() ? "An" : "Aus");
+            soundSwitch.setChecked(locomotive.isDrivingSound());
         }
 
-        if(locomotive.isCabineLighting()) {
-            smokeView.setText("An");
-            smokeSwitch.setChecked(true);
-        } else{
-            smokeView.setText("Aus");
-            smokeSwitch.setChecked(false);
+        if (change.contains(LocomotiveField.CABINE_LIGHTING)) {
+            smokeView.setText(locomotive.isCabineLighting() ? "An" : "Aus");
+            smokeSwitch.setChecked(locomotive.isCabineLighting());
         }
 
-        trainView.setText(locomotive.getName());
-
-        int direction = locomotive.getDirection();
-        if(direction == 0) {
-            directionView.setText("Vorwärts");
-            forward.setTextColor(Color.BLACK);
-            backward.setTextColor(Color.GRAY);
-        } else if (direction == 1) {
-            directionView.setText("Rückwärts");
-            forward.setTextColor(Color.GRAY);
-            backward.setTextColor(Color.BLACK);
+        if (change.contains(LocomotiveField.NAME)) {
+            trainView.setText(locomotive.getName());
         }
 
-        speedSlider.setProgress(locomotive.getSpeed());
-        speedView.setText("" + Math.abs(locomotive.getSpeed()));
+        if (change.contains(LocomotiveField.DIRECTION)) {
+            int direction = locomotive.getDirection();
+            if(direction == 0) {
+                directionView.setText("Vorwärts");
+                forward.setTextColor(Color.BLACK);
+                backward.setTextColor(Color.GRAY);
+            } else if (direction == 1) {
+                directionView.setText("Rückwärts");
+                forward.setTextColor(Color.GRAY);
+                backward.setTextColor(Color.BLACK);
+            }
+        }
+
+        if (change.contains(LocomotiveField.SPEED)) {
+            if (!speedTracking) {
+                speedSlider.setProgress(locomotive.getSpeed());
+            }
+            speedView.setText("" + Math.abs(locomotive.getSpeed()));
+        }
     }
 
     @Override
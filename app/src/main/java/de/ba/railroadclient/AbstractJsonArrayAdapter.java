@@ -1,22 +1,22 @@
 package de.ba.railroadclient;
 
 import android.content.Context;
-import android.os.Handler;
-import android.os.Looper;
 import android.widget.ArrayAdapter;
 
-import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
-import com.android.volley.toolbox.JsonArrayRequest;
+import com.android.volley.VolleyError;
 
-import org.json.JSONArray;
+import java.util.List;
 
 /**
  * Abstract adapter for server communication.
  * The adapter stores items which it got from a web server. The server sends a JSON string where
  * the adapter can read from. This class is abstract, child classes will overwrite
- * {@link #updateListItems(JSONArray)} and decide what to do with the servers response.
+ * {@link #readItem(String)} and decide how to create an item of the servers response. Items
+ * which the server sends again are reused, the view is only updated if the list has changed.
+ * <p>
+ * The list is read by a {@link DiscoveryService}, which can be shared by several adapters.
  *
  * @param <T>
  */
@@ -29,22 +29,53 @@ public abstract class AbstractJsonArrayAdapter<T> extends ArrayAdapter<T> {
     private String serverURL;
 
     /**
-     * HTTP request que. This queue can be shared with other tasks.
+     * Reads the server list
      */
-    private RequestQueue requestQueue;
+    private DiscoveryService discoveryService;
 
     /**
-     * the Update Handler is responsible for calling the update task
+     * Will receive the error messages
      */
-    private Handler updateHandler;
+    private Response.ErrorListener errorListener;
 
     /**
-     * Will receive the error messages
+     * Finds the changes of the server list
      */
-    private Response.ErrorListener errorListener;
+    private JsonListDiff<T> listDiff = new JsonListDiff<>();
 
     /**
-     * Create an adapter for a drop doen list.
+     * Reads new items with {@link #readItem(String)}
+     */
+    private JsonListDiff.ItemReader<T> itemReader = new JsonListDiff.ItemReader<T>() {
+        @Override
+        public T read(String json) {
+            return readItem(json);
+        }
+    };
+
+    /**
+     * Changes the items of the adapter
+     */
+    private JsonListDiff.ListTarget<T> listTarget = new JsonListDiff.ListTarget<T>() {
+        @Override
+        public void remove(int index) {
+            AbstractJsonArrayAdapter.this.remove(getItem(index));
+        }
+
+        @Override
+        public void insert(T item, int index) {
+            AbstractJsonArrayAdapter.this.insert(item, index);
+        }
+
+        @Override
+        public void replaceAll(List<T> items) {
+            clear();
+            addAll(items);
+        }
+    };
+
+    /**
+     * Create an adapter for a drop doen list with its own discovery.
      *
      * @param context
      * @param serverURL
@@ -52,48 +83,77 @@ public abstract class AbstractJsonArrayAdapter<T> extends ArrayAdapter<T> {
      * @param errorListener
      */
     public AbstractJsonArrayAdapter(Context context, String serverURL, RequestQueue requestQueue, Response.ErrorListener errorListener) {
+        this(context, serverURL, new DiscoveryService(requestQueue), errorListener);
+    }
+
+    /**
+     * Create an adapter for a drop doen list.
+     *
+     * @param context          The current context
+     * @param serverURL        URL of the server list
+     * @param discoveryService Reads the server list, can be shared with other adapters
+     * @param errorListener    Callback interface for delivering error responses
+     */
+    public AbstractJsonArrayAdapter(Context context, String serverURL, DiscoveryService discoveryService, Response.ErrorListener errorListener) {
         super(context, android.R.layout.simple_spinner_dropdown_item);
         this.serverURL = serverURL;
-        this.requestQueue = requestQueue;
+        this.discoveryService = discoveryService;
         this.errorListener = errorListener;
 
-        // update the list of active switch servers
-        updateHandler = new Handler(Looper.getMainLooper());
-        updateHandler.post(updateRunnable);
+        // update the list of active servers
+        discoveryService.subscribe(serverURL, discoveryListener);
     }
 
     /**
-     * This method will be called after the JSON request
+     * Stop to update the list, e.g. if the view is destroyed
+     */
+    public void close() {
+        discoveryService.unsubscribe(serverURL, discoveryListener);
+    }
+
+    /**
+     * Create an item of the list. The method is only called for items which are not in the
+     * list yet.
      *
-     * @param response Contains the items from server as a JSON string
+     * @param json A single item from the server as a JSON string
+     * @return The item, or null if it can not be read
      */
-    protected abstract void updateListItems(JSONArray response);
+    protected abstract T readItem(String json);
 
     /**
-     * The Updater will periodically read all active locomotive servers and update the selection
-     * spinner. The user can select a server from this list to connect to a switch server.
+     * This method will be called after the JSON request
+     *
+     * @param response Contains the items from server, already converted on the network thread
+     * @return true if the items have changed
      */
-    private Runnable updateRunnable = new Runnable() {
-        @Override
-        public void run() {
-            // call this method again in 10 seconds
-            updateHandler.postDelayed(updateRunnable, 10000);
+    protected boolean updateListItems(ServerList response) {
+        // the view is updated once after all changes, and only if there are changes
+        setNotifyOnChange(false);
+        boolean changed = listDiff.update(response.getItems(), itemReader, listTarget);
 
-            // get all active locomotive servers
-            JsonArrayRequest getRequest = new JsonArrayRequest(Request.Method.GET, serverURL, null, new Response.Listener<JSONArray>() {
-                @Override
-                public void onResponse(JSONArray response) {
+        if (changed) {
+            notifyDataSetChanged();
+        }
 
-                    // update the items
-                    updateListItems(response);
+        return changed;
+    }
 
-                    // update the view element
-                    notifyDataSetChanged();
-                }
-            }, errorListener);
+    /**
+     * Receives the list of all active servers and updates the selection spinner. The user can
+     * select a server from this list to connect to it.
+     */
+    private DiscoveryService.DiscoveryListener discoveryListener = new DiscoveryService.DiscoveryListener() {
+        @Override
+        public void serversChanged(ServerList servers) {
+            // update the items and the view element
+            updateListItems(servers);
+        }
 
-            // add the GET action to the request que
-            requestQueue.add(getRequest);
+        @Override
+        public void discoveryFailed(VolleyError error) {
+            if (errorListener != null) {
+                errorListener.onErrorResponse(error);
+            }
         }
     };
 }
@@ -0,0 +1,90 @@
+package de.ba.railroadclient;
+
+/**
+ * Computes the delay until the next poll of a server resource. The delay is short while
+ * something happens, e.g. a locomotive is moving, and grows exponentially while the resource
+ * doesn't change or the server can not be reached.
+ */
+@SuppressWarnings("WeakerAccess")
+public class AdaptivePollInterval {
+
+    /**
+     * Delay while the resource is active
+     */
+    private long fastInterval;
+
+    /**
+     * Delay after the resource has changed
+     */
+    private long normalInterval;
+
+    /**
+     * Upper limit for the exponential back off
+     */
+    private long maxInterval;
+
+    /**
+     * Current delay while the resource doesn't change
+     */
+    private long idleInterval;
+
+    /**
+     * Current delay while requests fail, 0 if the last request was successful
+     */
+    private long errorInterval = 0;
+
+    /**
+     * @param fastInterval   Delay in milliseconds while the resource is active
+     * @param normalInterval Delay in milliseconds after the resource has changed
+     * @param maxInterval    Maximum delay in milliseconds
+     */
+    public AdaptivePollInterval(long fastInterval, long normalInterval, long maxInterval) {
+        this.fastInterval = fastInterval;
+        this.normalInterval = normalInterval;
+        this.maxInterval = maxInterval;
+        this.idleInterval = normalInterval;
+    }
+
+    /**
+     * The last poll delivered a changed resource
+     */
+    public void changed() {
+        idleInterval = normalInterval;
+        errorInterval = 0;
+    }
+
+    /**
+     * The last poll delivered the same resource again
+     */
+    public void unchanged() {
+        idleInterval = Math.min(idleInterval * 2, maxInterval);
+        errorInterval = 0;
+    }
+
+    /**
+     * The last poll failed
+     */
+    public void failed() {
+        errorInterval = errorInterval == 0 ? normalInterval : Math.min(errorInterval * 2, maxInterval);
+    }
+
+    /**
+     * Start again with the normal delay, e.g. after the server has changed
+     */
+    public void reset() {
+        idleInterval = normalInterval;
+        errorInterval = 0;
+    }
+
+    /**
+     * @param active true if the resource is expected to change soon
+     * @return Delay in milliseconds until the next poll
+     */
+    public long next(boolean active) {
+        if (errorInterval > 0) {
+            return errorInterval;
+        }
+
+        return active ? fastInterval : idleInterval;
+    }
+}
@@ -0,0 +1,98 @@
+package de.ba.railroadclient;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes a file on a background thread, so the main thread never waits for the disk. Writes
+ * which are requested while an earlier write is still waiting are combined, only the latest
+ * content is written. A temporary file is renamed, so a crash can not leave a broken file
+ * behind.
+ */
+@SuppressWarnings("WeakerAccess")
+public class BackgroundFileWriter {
+
+    /**
+     * Thread shared by all writers, files are written one after the other
+     */
+    private static ExecutorService executor;
+
+    /**
+     * File to write
+     */
+    private final File file;
+
+    /**
+     * Content which waits to be written, null if there is none
+     */
+    private String pending;
+
+    /**
+     * @param file File to write
+     */
+    public BackgroundFileWriter(File file) {
+        this.file = file;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor();
+        }
+
+        return executor;
+    }
+
+    /**
+     * Write the file soon. Can be called on any thread.
+     *
+     * @param content The new content of the file
+     */
+    public void write(String content) {
+        synchronized (this) {
+            boolean queued = pending != null;
+            pending = content;
+
+            // the waiting task will write the latest content
+            if (queued) {
+                return;
+            }
+        }
+
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                String content;
+                synchronized (BackgroundFileWriter.this) {
+                    content = pending;
+                    pending = null;
+                }
+
+                writeFile(content);
+            }
+        });
+    }
+
+    private void writeFile(String content) {
+        try {
+            File temp = new File(file.getPath() + ".tmp");
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(content.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                Log.e("main", "can not write " + file);
+            }
+        } catch (IOException e) {
+            Log.e("main", "can not write " + file, e);
+        }
+    }
+}
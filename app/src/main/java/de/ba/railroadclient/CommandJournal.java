@@ -0,0 +1,450 @@
+package de.ba.railroadclient;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent journal of writes which could not be sent, because the server was unreachable.
+ * There is one entry per resource URL which contains the unsent fields, so repeated changes of
+ * the same field are compacted to the latest value. The entries are kept in the order of their
+ * first failed write and replayed in this order.
+ * <p>
+ * A {@link JsonPatchPipeline} which currently writes to a resource attaches to its entry and
+ * replays it itself. All other entries are replayed by {@link #replay(RequestQueue)}, with the
+ * preconditions of the version the pipeline has seen last, so they don't overwrite changes of
+ * other clients.
+ * <p>
+ * An entry without a pipeline is only replayed if it is a few seconds old, e.g. after the app
+ * was killed in the background or another locomotive was chosen. Speed and direction are never
+ * replayed without a pipeline, nobody may be watching the locomotive anymore.
+ * <p>
+ * The journal is used on the main thread only. The file is written on a background thread.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CommandJournal {
+
+    /**
+     * Maximum number of resources in the journal, the oldest entry is dropped first
+     */
+    private static final int MAX_ENTRIES = 32;
+
+    /**
+     * Entries without a pipeline which are older are dropped
+     */
+    private static final long MAX_DETACHED_AGE = 5000;
+
+    /**
+     * Fields which move a locomotive, they are only sent by a pipeline
+     */
+    private static final LocomotiveField[] MOTION_FIELDS = {LocomotiveField.SPEED, LocomotiveField.DIRECTION};
+
+    /**
+     * Changes are written at most once in this time
+     */
+    private static final long SAVE_DELAY = 500;
+
+    /**
+     * File to store the journal
+     */
+    private File file;
+
+    /**
+     * Writes the journal file on a background thread
+     */
+    private BackgroundFileWriter writer;
+
+    /**
+     * Plans the writes of the journal
+     */
+    private Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Identifies the planned write in the {@link #handler}
+     */
+    private final Object saveToken = new Object();
+
+    /**
+     * true if there are changes which are not written yet
+     */
+    private boolean dirty = false;
+
+    /**
+     * Unsent fields by resource URL, in the order of the first failed write
+     */
+    private LinkedHashMap<String, JSONObject> entries = new LinkedHashMap<>();
+
+    /**
+     * {@link System#currentTimeMillis()} of the last record by resource URL
+     */
+    private Map<String, Long> recordTimes = new HashMap<>();
+
+    /**
+     * URLs of resources which are replayed by a pipeline
+     */
+    private Set<String> attached = new HashSet<>();
+
+    /**
+     * Version seen by the last pipeline by resource URL, used for the preconditions of the replay
+     */
+    private Map<String, ResourceVersion> versions = new HashMap<>();
+
+    /**
+     * true while {@link #replay(RequestQueue)} sends entries
+     */
+    private boolean replaying = false;
+
+    /**
+     * URLs whose server was unreachable in the current replay
+     */
+    private Set<String> unreachable = new HashSet<>();
+
+    /**
+     * Create a journal and read the entries of an earlier run.
+     *
+     * @param file File to store the journal, e.g. in the files directory of the app
+     */
+    public CommandJournal(File file) {
+        this.file = file;
+        this.writer = new BackgroundFileWriter(file);
+        load();
+    }
+
+    /**
+     * A pipeline starts to write to a resource and takes over its entry.
+     *
+     * @param url URL of the resource
+     * @return Unsent fields of the resource, empty if there are none
+     */
+    public JSONObject attach(String url) {
+        attached.add(url);
+        versions.remove(url);
+
+        JSONObject delta = new JSONObject();
+        JSONObject entry = entries.get(url);
+        if (entry != null) {
+            JsonDelta.merge(entry, delta);
+        }
+
+        return delta;
+    }
+
+    /**
+     * A pipeline doesn't write to a resource anymore. Its entry will be replayed by
+     * {@link #replay(RequestQueue)}, without the fields which move a locomotive.
+     *
+     * @param url     URL of the resource
+     * @param version Version of the resource as seen by the pipeline, or null
+     */
+    public void detach(String url, ResourceVersion version) {
+        attached.remove(url);
+
+        if (entries.containsKey(url)) {
+            if (version != null) {
+                versions.put(url, version);
+            }
+            prune(url);
+            save();
+        }
+    }
+
+    /**
+     * @param url URL of the resource
+     * @return true if the journal contains unsent fields of the resource
+     */
+    public boolean contains(String url) {
+        return entries.containsKey(url);
+    }
+
+    /**
+     * @return Number of resources with unsent fields
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Store unsent fields. Fields which are already in the journal are replaced.
+     *
+     * @param url   URL of the resource
+     * @param delta Unsent fields
+     */
+    public void record(String url, JSONObject delta) {
+        JSONObject entry = entries.get(url);
+
+        if (entry == null) {
+            entry = new JSONObject();
+            entries.put(url, entry);
+            evict();
+        }
+
+        JsonDelta.merge(delta, entry);
+        recordTimes.put(url, System.currentTimeMillis());
+        save();
+    }
+
+    /**
+     * Remove fields which were written successfully. Fields which were changed again meanwhile
+     * stay in the journal.
+     *
+     * @param url   URL of the resource
+     * @param delta Written fields
+     */
+    public void acknowledge(String url, JSONObject delta) {
+        JSONObject entry = entries.get(url);
+        if (entry == null) {
+            return;
+        }
+
+        Iterator<String> keys = delta.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = entry.opt(key);
+
+            if (value != null && value.equals(delta.opt(key))) {
+                entry.remove(key);
+            }
+        }
+
+        if (entry.length() == 0) {
+            remove(url);
+        }
+        save();
+    }
+
+    /**
+     * Send the entries of all resources without a pipeline, one after the other. Entries
+     * whose server is unreachable are skipped and sent with the next replay.
+     *
+     * @param requestQueue Queue to send the PATCH requests
+     */
+    public void replay(RequestQueue requestQueue) {
+        if (replaying) {
+            return;
+        }
+
+        unreachable.clear();
+        replayNext(requestQueue);
+    }
+
+    /**
+     * Send the next entry of the current replay
+     */
+    private void replayNext(final RequestQueue requestQueue) {
+        for (final String url : new ArrayList<>(entries.keySet())) {
+            if (attached.contains(url) || unreachable.contains(url) || !prune(url)) {
+                continue;
+            }
+
+            final JSONObject delta = new JSONObject();
+            JsonDelta.merge(entries.get(url), delta);
+            replaying = true;
+
+            TimedJsonObjectRequest patchRequest = new TimedJsonObjectRequest(Request.Method.PATCH, url, delta, 0, new Response.Listener<JSONObject>() {
+                @Override
+                public void onResponse(JSONObject response) {
+                    replaying = false;
+                    acknowledge(url, delta);
+                    replayNext(requestQueue);
+                }
+            }, new Response.ErrorListener() {
+                @Override
+                public void onErrorResponse(VolleyError error) {
+                    replaying = false;
+
+                    // try again with the next replay, the server rejected the fields or they
+                    // were changed by someone else, don't try again
+                    if (JsonPatchPipeline.isUnreachable(error)) {
+                        unreachable.add(url);
+                    } else {
+                        acknowledge(url, delta);
+                    }
+                    replayNext(requestQueue);
+                }
+            });
+
+            ResourceVersion version = versions.get(url);
+            if (version != null) {
+                patchRequest.setVersion(version);
+            }
+
+            // old commands must not delay the current ones
+            patchRequest.setPriority(TrafficClass.STATE);
+
+            // add the PATCH action to the request queue
+            requestQueue.add(patchRequest);
+            return;
+        }
+    }
+
+    /**
+     * Drop the oldest entries without pipeline, if the journal is too large
+     */
+    private void evict() {
+        Iterator<String> urls = entries.keySet().iterator();
+
+        while (entries.size() > MAX_ENTRIES && urls.hasNext()) {
+            String url = urls.next();
+            if (!attached.contains(url)) {
+                urls.remove();
+                recordTimes.remove(url);
+                versions.remove(url);
+            }
+        }
+    }
+
+    /**
+     * Drop the fields which move a locomotive from an entry without a pipeline, or the whole
+     * entry if it is too old.
+     *
+     * @param url URL of the resource
+     * @return true if there are fields left to replay
+     */
+    private boolean prune(String url) {
+        JSONObject entry = entries.get(url);
+        if (entry == null) {
+            return false;
+        }
+
+        Long time = recordTimes.get(url);
+        long now = System.currentTimeMillis();
+        if (time == null || now - time > MAX_DETACHED_AGE || now < time) {
+            Log.w("main", "dropped old command journal entry of " + url);
+            remove(url);
+            save();
+            return false;
+        }
+
+        for (LocomotiveField field : MOTION_FIELDS) {
+            String key = field.key();
+            if (entry.remove(key) != null) {
+                Log.w("main", "dropped " + key + " of " + url + " from the command journal");
+            }
+        }
+
+        if (entry.length() == 0) {
+            remove(url);
+            save();
+            return false;
+        }
+
+        return true;
+    }
+
+    private void remove(String url) {
+        entries.remove(url);
+        recordTimes.remove(url);
+        versions.remove(url);
+    }
+
+    /**
+     * Read the journal file, a JSON object with the record time and the delta per URL. Old
+     * entries and the fields which move a locomotive are dropped.
+     */
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        try {
+            InputStream in = new FileInputStream(file);
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            try {
+                byte[] buffer = new byte[4096];
+                int length;
+                while ((length = in.read(buffer)) > 0) {
+                    content.write(buffer, 0, length);
+                }
+            } finally {
+                in.close();
+            }
+
+            JSONObject journal = new JSONObject(content.toString("UTF-8"));
+            Iterator<String> urls = journal.keys();
+            while (urls.hasNext()) {
+                String url = urls.next();
+                JSONObject stored = journal.getJSONObject(url);
+                JSONObject delta = stored.optJSONObject("delta");
+
+                if (delta != null) {
+                    entries.put(url, delta);
+                    recordTimes.put(url, stored.optLong("time", 0));
+                    prune(url);
+                }
+            }
+        } catch (IOException | JSONException e) {
+            Log.e("main", "can not read command journal", e);
+        }
+    }
+
+    /**
+     * Write the journal file soon. A burst of changes, e.g. of the speed slider while the
+     * server is unreachable, costs a single write.
+     */
+    private void save() {
+        dirty = true;
+        if (!handler.hasMessages(0, saveToken)) {
+            handler.postAtTime(saveTask, saveToken, SystemClock.uptimeMillis() + SAVE_DELAY);
+        }
+    }
+
+    /**
+     * Write the journal file now, e.g. before the app is stopped. The file is written on a
+     * background thread.
+     */
+    public void flush() {
+        handler.removeCallbacks(saveTask, saveToken);
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+
+        try {
+            JSONObject journal = new JSONObject();
+            for (Map.Entry<String, JSONObject> entry : entries.entrySet()) {
+                Long time = recordTimes.get(entry.getKey());
+
+                JSONObject stored = new JSONObject();
+                stored.put("time", time == null ? 0 : time);
+                stored.put("delta", entry.getValue());
+                journal.put(entry.getKey(), stored);
+            }
+
+            writer.write(journal.toString());
+        } catch (JSONException e) {
+            Log.e("main", "can not write command journal", e);
+        }
+    }
+
+    /**
+     * Writes the changes of the last {@link #SAVE_DELAY} milliseconds
+     */
+    private Runnable saveTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+}
@@ -0,0 +1,117 @@
+package de.ba.railroadclient;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Latencies of locomotive and switch commands, one set of histograms per server. A command
+ * passes the following stages:
+ * <ol>
+ * <li>{@link Stage#QUEUE_WAIT}: from the setter call until the request is sent</li>
+ * <li>{@link Stage#GET_ROUND_TRIP} and {@link Stage#PATCH_ROUND_TRIP}: network and server time
+ * of the requests</li>
+ * <li>{@link Stage#OBSERVED}: from the setter call until a GET shows the new state</li>
+ * </ol>
+ * A command whose state is never shown, because a newer command replaced it or it took too
+ * long, is recorded as {@link Stage#UNOBSERVED} with the time until it was given up.
+ * The histograms can be read at runtime, {@link #getSummary()} can be written to a file with a
+ * {@link BackgroundFileWriter}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CommandLatency {
+
+    /**
+     * Stages of a command
+     */
+    public enum Stage {
+        QUEUE_WAIT, GET_ROUND_TRIP, PATCH_ROUND_TRIP, OBSERVED, UNOBSERVED
+    }
+
+    /**
+     * Latencies of all servers of this app
+     */
+    private static CommandLatency instance;
+
+    /**
+     * Histograms by server URL
+     */
+    private final Map<String, Map<Stage, LatencyHistogram>> histograms = new LinkedHashMap<>();
+
+    /**
+     * @return Latencies of all servers of this app
+     */
+    public static synchronized CommandLatency getInstance() {
+        if (instance == null) {
+            instance = new CommandLatency();
+        }
+
+        return instance;
+    }
+
+    /**
+     * @param serverURL REST URL of the server
+     * @param stage     Stage of the command
+     * @param millis    Duration of the stage
+     */
+    public void record(String serverURL, Stage stage, long millis) {
+        getHistogram(serverURL, stage).record(millis);
+    }
+
+    /**
+     * @param serverURL REST URL of the server
+     * @param stage     Stage of the command
+     * @return Histogram of this server and stage, will be created if necessary
+     */
+    public synchronized LatencyHistogram getHistogram(String serverURL, Stage stage) {
+        Map<Stage, LatencyHistogram> stages = histograms.get(serverURL);
+        if (stages == null) {
+            stages = new EnumMap<>(Stage.class);
+            histograms.put(serverURL, stages);
+        }
+
+        LatencyHistogram histogram = stages.get(stage);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            stages.put(stage, histogram);
+        }
+
+        return histogram;
+    }
+
+    /**
+     * @return REST URLs of all servers with recorded latencies
+     */
+    public synchronized List<String> getServers() {
+        return new ArrayList<>(histograms.keySet());
+    }
+
+    /**
+     * @return One tab separated line per server and stage with count, p50, p95, p99 and max
+     */
+    public synchronized String getSummary() {
+        StringBuilder summary = new StringBuilder("server\tstage\tcount\tp50\tp95\tp99\tmax\n");
+
+        for (Map.Entry<String, Map<Stage, LatencyHistogram>> server : histograms.entrySet()) {
+            for (Map.Entry<Stage, LatencyHistogram> stage : server.getValue().entrySet()) {
+                LatencyHistogram histogram = stage.getValue();
+                summary.append(String.format(Locale.US, "%s\t%s\t%d\t%d\t%d\t%d\t%d\n",
+                        server.getKey(), stage.getKey(), histogram.getCount(),
+                        histogram.getPercentile(50), histogram.getPercentile(95),
+                        histogram.getPercentile(99), histogram.getMax()));
+            }
+        }
+
+        return summary.toString();
+    }
+
+    /**
+     * Remove all recorded latencies
+     */
+    public synchronized void clear() {
+        histograms.clear();
+    }
+}
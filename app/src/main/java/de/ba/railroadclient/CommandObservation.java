@@ -0,0 +1,103 @@
+package de.ba.railroadclient;
+
+import android.os.SystemClock;
+
+import org.json.JSONObject;
+
+/**
+ * Measures the time from a command until the server state shows its result. After a write was
+ * acknowledged, every state read from the server is compared with the written fields. As soon
+ * as all of them match, {@link CommandLatency.Stage#OBSERVED} is recorded. Only the latest
+ * command is observed: if a newer command is acknowledged or the fields don't match within
+ * {@link #OBSERVE_TIMEOUT}, e.g. because another client has changed them, the command is
+ * recorded as {@link CommandLatency.Stage#UNOBSERVED}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CommandObservation {
+
+    /**
+     * Milliseconds after the acknowledgement until we stop waiting for the state
+     */
+    public static final long OBSERVE_TIMEOUT = 10000;
+
+    /**
+     * REST URL of the server
+     */
+    private String serverURL;
+
+    /**
+     * Written fields which are not yet seen, null if we don't wait for a state
+     */
+    private JSONObject expected;
+
+    /**
+     * {@link SystemClock#elapsedRealtime()} when the command was issued
+     */
+    private long commandTime;
+
+    /**
+     * {@link SystemClock#elapsedRealtime()} when the write was acknowledged
+     */
+    private long acknowledgedTime;
+
+    /**
+     * A write was acknowledged by the server. An older write which is not yet observed is
+     * given up, the newer one replaces it.
+     *
+     * @param serverURL   REST URL of the server
+     * @param delta       Written fields
+     * @param commandTime {@link SystemClock#elapsedRealtime()} when the command was issued
+     */
+    public void acknowledged(String serverURL, JSONObject delta, long commandTime) {
+        if (expected != null) {
+            missed();
+        }
+
+        expected = new JSONObject();
+        JsonDelta.merge(delta, expected);
+        this.serverURL = serverURL;
+        this.commandTime = commandTime;
+        this.acknowledgedTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @return true if an acknowledged write is not yet seen in the server state and we still
+     * wait for it
+     */
+    public boolean isWaiting() {
+        if (expected != null && SystemClock.elapsedRealtime() - acknowledgedTime > OBSERVE_TIMEOUT) {
+            missed();
+        }
+
+        return expected != null;
+    }
+
+    /**
+     * Compare a state read from the server with the written fields
+     *
+     * @param state Complete state of the resource
+     */
+    public void observe(JSONObject state) {
+        if (!isWaiting() || JsonDelta.diff(state, expected).length() > 0) {
+            return;
+        }
+
+        CommandLatency.getInstance().record(serverURL, CommandLatency.Stage.OBSERVED, SystemClock.elapsedRealtime() - commandTime);
+        expected = null;
+    }
+
+    /**
+     * Give up the expected write
+     */
+    private void missed() {
+        CommandLatency.getInstance().record(serverURL, CommandLatency.Stage.UNOBSERVED, SystemClock.elapsedRealtime() - commandTime);
+        expected = null;
+    }
+
+    /**
+     * Stop waiting, e.g. because the server has changed
+     */
+    public void reset() {
+        expected = null;
+    }
+}
@@ -0,0 +1,34 @@
+package de.ba.railroadclient;
+
+import com.android.volley.Response;
+
+/**
+ * GET request for a resource which is only delivered if it has changed since the last call,
+ * see {@link DecodedGetRequest}.
+ * <p>
+ * The raw response body is delivered, e.g. for a receiver which has to decode it on the main
+ * thread.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ConditionalGetRequest extends DecodedGetRequest<byte[]> {
+
+    /**
+     * The body is delivered as it is
+     */
+    private static final Decoder<byte[]> RAW_BODY = new Decoder<byte[]>() {
+        @Override
+        public byte[] decode(byte[] body) {
+            return body;
+        }
+    };
+
+    /**
+     * @param url           URL to fetch the resource from
+     * @param version       Version of the last response, will be updated by this request
+     * @param listener      Listener to receive the body of changed resources
+     * @param errorListener Error listener, or null to ignore errors
+     */
+    public ConditionalGetRequest(String url, ResourceVersion version, Response.Listener<byte[]> listener, Response.ErrorListener errorListener) {
+        super(url, version, RAW_BODY, listener, errorListener);
+    }
+}
@@ -0,0 +1,163 @@
+package de.ba.railroadclient;
+
+import android.os.SystemClock;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+
+import java.net.HttpURLConnection;
+import java.util.Map;
+
+/**
+ * GET request for a resource which is only delivered if it has changed since the last call.
+ * The request sends If-None-Match and If-Modified-Since headers from a {@link ResourceVersion}.
+ * If the server answers with 304 or sends the same content again, the listener is not called.
+ * <p>
+ * A changed body is decoded by a {@link Decoder} on the network thread, so the main thread
+ * only receives a result which is ready to be applied.
+ *
+ * @param <T> Type of the decoded resource
+ */
+@SuppressWarnings("WeakerAccess")
+public class DecodedGetRequest<T> extends Request<T> {
+
+    /**
+     * Version of the last delivered response
+     */
+    private final ResourceVersion version;
+
+    /**
+     * Decodes the body of changed resources
+     */
+    private final Decoder<T> decoder;
+
+    /**
+     * Will receive the decoded changed resources
+     */
+    private final Response.Listener<T> listener;
+
+    /**
+     * {@link SystemClock#elapsedRealtime()} when the request was sent
+     */
+    private volatile long sendTime;
+
+    /**
+     * Will be informed about unchanged responses, may be null
+     */
+    private UnchangedListener unchangedListener;
+
+    /**
+     * Priority in the request queue, see {@link TrafficClass}
+     */
+    private Priority priority = TrafficClass.STATE;
+
+    /**
+     * Callback interface for responses which were not delivered, because the object has not
+     * changed since the last call.
+     */
+    public interface UnchangedListener {
+
+        void onUnchanged();
+
+    }
+
+    /**
+     * Decodes the body of a response. The decoder is called on a network thread, it must not
+     * touch objects of the main thread.
+     */
+    public interface Decoder<T> {
+
+        /**
+         * @param body The body of the response
+         * @return The decoded resource, or null if the body can not be read
+         */
+        T decode(byte[] body);
+
+    }
+
+    /**
+     * @param url           URL to fetch the resource from
+     * @param version       Version of the last response, will be updated by this request
+     * @param decoder       Decodes the body of changed resources
+     * @param listener      Listener to receive the decoded changed resources
+     * @param errorListener Error listener, or null to ignore errors
+     */
+    public DecodedGetRequest(String url, ResourceVersion version, Decoder<T> decoder, Response.Listener<T> listener, Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        this.version = version;
+        this.decoder = decoder;
+        this.listener = listener;
+
+        // we handle the versions ourselves
+        setShouldCache(false);
+    }
+
+    /**
+     * @param unchangedListener Listener to be informed about unchanged responses, or null
+     */
+    public void setUnchangedListener(UnchangedListener unchangedListener) {
+        this.unchangedListener = unchangedListener;
+    }
+
+    /**
+     * @param priority Priority in the request queue, see {@link TrafficClass}
+     */
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return priority;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        // called by the network thread right before the request is sent
+        sendTime = SystemClock.elapsedRealtime();
+
+        return version.getConditionalHeaders();
+    }
+
+    @Override
+    protected Response<T> parseNetworkResponse(NetworkResponse response) {
+        CommandLatency.getInstance().record(getUrl(), CommandLatency.Stage.GET_ROUND_TRIP, SystemClock.elapsedRealtime() - sendTime);
+
+        // the server knows that nothing has changed
+        if (response.statusCode == HttpURLConnection.HTTP_NOT_MODIFIED || response.data == null) {
+            return Response.success(null, null);
+        }
+
+        // the server sent the same content again
+        if (!version.update(response.headers, response.data)) {
+            return Response.success(null, null);
+        }
+
+        // decode here, the main thread has enough to do
+        T resource = decoder.decode(response.data);
+        if (resource == null) {
+            // read the resource completely with the next request
+            version.forgetContent();
+            return Response.error(new ParseError(response));
+        }
+
+        return Response.success(resource, null);
+    }
+
+    /**
+     * Unchanged responses are delivered as null and will not reach the listener
+     */
+    @Override
+    protected void deliverResponse(T response) {
+        if (response == null) {
+            if (unchangedListener != null) {
+                unchangedListener.onUnchanged();
+            }
+        } else if (listener != null) {
+            listener.onResponse(response);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package de.ba.railroadclient;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import model.Locomotive;
+import model.LocomotiveDAO;
+import model.LocomotivePOJO;
+
+/**
+ * Stores the last server lists and the last state of each locomotive in a file, so they can be
+ * shown at once after the next start, before the first response of the servers arrives.
+ * Everything is kept as JSON text, as it was received from the servers.
+ * <p>
+ * The cache is used on the main thread only. Changes are only kept in memory until
+ * {@link #save()} hands them to a {@link BackgroundFileWriter}, e.g. when the app is stopped.
+ */
+@SuppressWarnings("WeakerAccess")
+public class DiscoveryCache {
+
+    /**
+     * Maximum number of stored locomotives, the oldest is dropped first
+     */
+    private static final int MAX_LOCOMOTIVES = 32;
+
+    /**
+     * File to store the cache
+     */
+    private File file;
+
+    /**
+     * Writes the file on a background thread
+     */
+    private BackgroundFileWriter writer;
+
+    /**
+     * Server lists by the URL of their registry endpoint
+     */
+    private JSONObject lists = new JSONObject();
+
+    /**
+     * Locomotives by their REST URL, in the order they were stored
+     */
+    private JSONObject locomotives = new JSONObject();
+
+    /**
+     * true if there are changes which are not written yet
+     */
+    private boolean dirty = false;
+
+    /**
+     * Create a cache and read the content of an earlier run.
+     *
+     * @param file File to store the cache, e.g. in the cache directory of the app
+     */
+    public DiscoveryCache(File file) {
+        this.file = file;
+        this.writer = new BackgroundFileWriter(file);
+        load();
+    }
+
+    /**
+     * @param url URL of the registry endpoint
+     * @return The last server list, or null if it is unknown
+     */
+    public JSONArray getServers(String url) {
+        return lists.optJSONArray(url);
+    }
+
+    /**
+     * @param url     URL of the registry endpoint
+     * @param servers The current server list
+     */
+    public void putServers(String url, JSONArray servers) {
+        try {
+            lists.put(url, servers);
+            dirty = true;
+        } catch (JSONException e) {
+            Log.e("main", "can not cache server list", e);
+        }
+    }
+
+    /**
+     * @param restURL REST URL of the locomotive server
+     * @return The last state of the locomotive, or null if it is unknown
+     */
+    public Locomotive getLocomotive(String restURL) {
+        JSONObject json = locomotives.optJSONObject(restURL);
+        if (json == null) {
+            return null;
+        }
+
+        Locomotive locomotive = new LocomotivePOJO();
+        return LocomotiveCodec.read(json.toString(), locomotive) ? locomotive : null;
+    }
+
+    /**
+     * @param restURL    REST URL of the locomotive server
+     * @param locomotive The current state of the locomotive
+     */
+    public void putLocomotive(String restURL, Locomotive locomotive) {
+        try {
+            // the latest locomotive goes to the end
+            locomotives.remove(restURL);
+            locomotives.put(restURL, LocomotiveDAO.toJSON(locomotive));
+
+            while (locomotives.length() > MAX_LOCOMOTIVES) {
+                locomotives.remove(locomotives.keys().next());
+            }
+            dirty = true;
+        } catch (JSONException e) {
+            Log.e("main", "can not cache locomotive", e);
+        }
+    }
+
+    /**
+     * Write the changes to the file. The file is written on a background thread, only the
+     * content is built here.
+     */
+    public void save() {
+        if (!dirty) {
+            return;
+        }
+
+        try {
+            JSONObject cache = new JSONObject();
+            cache.put("lists", lists);
+            cache.put("locomotives", locomotives);
+
+            writer.write(cache.toString());
+            dirty = false;
+        } catch (JSONException e) {
+            Log.e("main", "can not write discovery cache", e);
+        }
+    }
+
+    /**
+     * Read the cache file
+     */
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        try {
+            InputStream in = new FileInputStream(file);
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            try {
+                byte[] buffer = new byte[4096];
+                int length;
+                while ((length = in.read(buffer)) > 0) {
+                    content.write(buffer, 0, length);
+                }
+            } finally {
+                in.close();
+            }
+
+            JSONObject cache = new JSONObject(content.toString("UTF-8"));
+            JSONObject storedLists = cache.optJSONObject("lists");
+            JSONObject storedLocomotives = cache.optJSONObject("locomotives");
+
+            if (storedLists != null) {
+                lists = storedLists;
+            }
+            if (storedLocomotives != null) {
+                locomotives = storedLocomotives;
+            }
+        } catch (IOException | JSONException e) {
+            Log.e("main", "can not read discovery cache", e);
+        }
+    }
+}
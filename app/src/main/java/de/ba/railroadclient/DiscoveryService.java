@@ -0,0 +1,295 @@
+package de.ba.railroadclient;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the server lists of all registry endpoints, e.g. of the locomotive and the switch
+ * servlet, on one shared schedule. Every endpoint is only read once per round, no matter how
+ * many adapters or proxies listen to it. The last list of each endpoint is cached, so a new
+ * listener gets it at once. With a {@link DiscoveryCache} the lists of the last run are handed
+ * out until the endpoints have answered.
+ * <p>
+ * The service is used on the main thread only.
+ */
+@SuppressWarnings("WeakerAccess")
+public class DiscoveryService {
+
+    /**
+     * A cached list older than this is not handed to new listeners, the endpoint is read again
+     */
+    private static final long CACHE_TTL = 30000;
+
+    /**
+     * Will be informed about the server list of an endpoint
+     */
+    public interface DiscoveryListener {
+
+        /**
+         * @param servers The current server list
+         */
+        void serversChanged(ServerList servers);
+
+        /**
+         * @param error Why the server list could not be read
+         */
+        void discoveryFailed(VolleyError error);
+
+    }
+
+    /**
+     * A registry endpoint with its listeners
+     */
+    private static class Endpoint {
+
+        String url;
+
+        ResourceVersion version = new ResourceVersion();
+
+        List<DiscoveryListener> discoveryListeners = new ArrayList<>();
+
+        /**
+         * Last server list, null if unknown
+         */
+        ServerList servers;
+
+        /**
+         * {@link SystemClock#elapsedRealtime()} when the list was confirmed by the server
+         */
+        long confirmedTime = 0;
+
+        boolean polling = false;
+    }
+
+    /**
+     * HTTP request que. This queue can be shared with other tasks.
+     */
+    private RequestQueue requestQueue;
+
+    /**
+     * the scheduler is responsible for starting the rounds
+     */
+    private PollScheduler pollScheduler;
+
+    /**
+     * Delay between two rounds, grows while the endpoints can not be reached
+     */
+    private AdaptivePollInterval pollInterval = new AdaptivePollInterval(10000, 10000, 60000);
+
+    /**
+     * All endpoints with listeners by their URL
+     */
+    private Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+
+    /**
+     * Stores the lists for the next start, may be null
+     */
+    private DiscoveryCache discoveryCache;
+
+    /**
+     * Results of the current round
+     */
+    private boolean roundSucceeded = false;
+
+    private boolean roundFailed = false;
+
+    /**
+     * @param requestQueue A request dispatch queue with a thread pool of dispatchers
+     */
+    public DiscoveryService(RequestQueue requestQueue) {
+        this.requestQueue = requestQueue;
+        this.pollScheduler = PollScheduler.getMainScheduler();
+    }
+
+    /**
+     * Must be called before the first listener subscribes.
+     *
+     * @param discoveryCache Stores the lists for the next start, or null
+     */
+    public void setDiscoveryCache(DiscoveryCache discoveryCache) {
+        this.discoveryCache = discoveryCache;
+    }
+
+    /**
+     * Start to listen to an endpoint. The known list is delivered at once. If it is not recent,
+     * e.g. from the cache of the last run, the endpoint is read now.
+     *
+     * @param url               URL of the registry endpoint
+     * @param discoveryListener Will be informed about the server list
+     */
+    public void subscribe(String url, DiscoveryListener discoveryListener) {
+        Endpoint endpoint = endpoints.get(url);
+
+        if (endpoint == null) {
+            endpoint = new Endpoint();
+            endpoint.url = url;
+            endpoints.put(url, endpoint);
+
+            // the list of the last run, until the endpoint answers
+            JSONArray cached = discoveryCache == null ? null : discoveryCache.getServers(url);
+            if (cached != null) {
+                endpoint.servers = new ServerList(cached);
+            }
+        }
+
+        if (!endpoint.discoveryListeners.contains(discoveryListener)) {
+            endpoint.discoveryListeners.add(discoveryListener);
+        }
+
+        if (endpoint.servers != null) {
+            discoveryListener.serversChanged(endpoint.servers);
+        }
+        if (!isFresh(endpoint) && !endpoint.polling) {
+            poll(endpoint);
+        }
+
+        // start the rounds with the first endpoint
+        if (!pollScheduler.isScheduled(roundTask)) {
+            pollScheduler.schedule(roundTask, pollInterval.next(false));
+        }
+    }
+
+    /**
+     * Stop to listen to an endpoint. The endpoint is not read anymore without listeners.
+     *
+     * @param url               URL of the registry endpoint
+     * @param discoveryListener Listener to remove
+     */
+    public void unsubscribe(String url, DiscoveryListener discoveryListener) {
+        Endpoint endpoint = endpoints.get(url);
+        if (endpoint == null) {
+            return;
+        }
+
+        endpoint.discoveryListeners.remove(discoveryListener);
+        if (endpoint.discoveryListeners.isEmpty()) {
+            endpoints.remove(url);
+        }
+
+        if (endpoints.isEmpty()) {
+            pollScheduler.cancel(roundTask);
+        }
+    }
+
+    /**
+     * @param url URL of the registry endpoint
+     * @return The cached server list, or null if it is unknown or too old
+     */
+    public ServerList getServers(String url) {
+        Endpoint endpoint = endpoints.get(url);
+        return endpoint != null && isFresh(endpoint) ? endpoint.servers : null;
+    }
+
+    private static boolean isFresh(Endpoint endpoint) {
+        return endpoint.servers != null && SystemClock.elapsedRealtime() - endpoint.confirmedTime <= CACHE_TTL;
+    }
+
+    /**
+     * Reads all endpoints once and plans the next round
+     */
+    private PollScheduler.PollTask roundTask = new PollScheduler.PollTask() {
+
+        @Override
+        public void poll() {
+            // the results of the last round decide about the delay
+            if (roundFailed && !roundSucceeded) {
+                pollInterval.failed();
+            } else if (roundSucceeded) {
+                pollInterval.changed();
+            }
+            roundSucceeded = false;
+            roundFailed = false;
+
+            for (Endpoint endpoint : endpoints.values()) {
+                if (!endpoint.polling) {
+                    DiscoveryService.this.poll(endpoint);
+                }
+            }
+
+            if (!endpoints.isEmpty()) {
+                pollScheduler.schedule(roundTask, pollInterval.next(false));
+            }
+        }
+    };
+
+    /**
+     * Decodes the server lists on the network thread
+     */
+    private static final DecodedGetRequest.Decoder<ServerList> DECODER = new DecodedGetRequest.Decoder<ServerList>() {
+
+        @Override
+        public ServerList decode(byte[] body) {
+            try {
+                return ServerList.parse(new String(body, "UTF-8"));
+            } catch (JSONException | UnsupportedEncodingException e) {
+                Log.e("main", "can not read server list", e);
+                return null;
+            }
+        }
+    };
+
+    /**
+     * Read a single endpoint, the listeners are only informed if the list has changed
+     */
+    private void poll(final Endpoint endpoint) {
+        DecodedGetRequest<ServerList> getRequest = new DecodedGetRequest<>(endpoint.url, endpoint.version, DECODER, new Response.Listener<ServerList>() {
+            @Override
+            public void onResponse(ServerList servers) {
+                MainThreadMonitor.mark(MainThreadMonitor.Source.LIST_UPDATE);
+
+                endpoint.polling = false;
+                roundSucceeded = true;
+
+                endpoint.servers = servers;
+                endpoint.confirmedTime = SystemClock.elapsedRealtime();
+
+                // only kept in memory, the cache is written when the app is stopped
+                if (discoveryCache != null) {
+                    discoveryCache.putServers(endpoint.url, servers.getArray());
+                }
+                for (DiscoveryListener discoveryListener : new ArrayList<>(endpoint.discoveryListeners)) {
+                    discoveryListener.serversChanged(servers);
+                }
+            }
+        }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                endpoint.polling = false;
+                roundFailed = true;
+                notifyFailed(endpoint, error);
+            }
+        });
+        getRequest.setUnchangedListener(new DecodedGetRequest.UnchangedListener() {
+            @Override
+            public void onUnchanged() {
+                endpoint.polling = false;
+                roundSucceeded = true;
+                endpoint.confirmedTime = SystemClock.elapsedRealtime();
+            }
+        });
+        getRequest.setPriority(TrafficClass.DISCOVERY);
+
+        // add the GET action to the request que
+        endpoint.polling = true;
+        requestQueue.add(getRequest);
+    }
+
+    private void notifyFailed(Endpoint endpoint, VolleyError error) {
+        for (DiscoveryListener discoveryListener : new ArrayList<>(endpoint.discoveryListeners)) {
+            discoveryListener.discoveryFailed(error);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package de.ba.railroadclient;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/**
+ * Helper methods to work with partial JSON objects. A delta contains only the fields of a
+ * resource which have been changed, e.g. by a setter of a proxy object.
+ */
+@SuppressWarnings("WeakerAccess")
+public class JsonDelta {
+
+    private JsonDelta() {
+    }
+
+    /**
+     * @param before State of a resource before a change
+     * @param after  State of the same resource after the change
+     * @return A new object with all fields of <code>after</code> which differ from <code>before</code>
+     */
+    public static JSONObject diff(JSONObject before, JSONObject after) {
+        JSONObject delta = new JSONObject();
+
+        Iterator<String> keys = after.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = after.opt(key);
+
+            if (!equalValues(before.opt(key), value)) {
+                put(delta, key, value);
+            }
+        }
+
+        return delta;
+    }
+
+    /**
+     * Copy all fields of <code>source</code> into <code>target</code>. Existing fields in
+     * <code>target</code> will be overwritten, so the latest value wins.
+     *
+     * @param source Delta to read from
+     * @param target Delta to merge into
+     */
+    public static void merge(JSONObject source, JSONObject target) {
+        Iterator<String> keys = source.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            put(target, key, source.opt(key));
+        }
+    }
+
+    /**
+     * @param o1 JSON value to compare
+     * @param o2 JSON value to compare
+     * @return true if o1 and o2 are equal
+     */
+    private static boolean equalValues(Object o1, Object o2) {
+        if (o1 == null) {
+            return o2 == null;
+        }
+
+        return o1.equals(o2);
+    }
+
+    /**
+     * Put a value without a checked exception. Keys are never null here and values always
+     * come from another JSON object, so the exception can not be thrown.
+     */
+    private static void put(JSONObject object, String key, Object value) {
+        try {
+            object.put(key, value);
+        } catch (JSONException e) {
+            Log.e("main", "can not put JSON value " + key, e);
+        }
+    }
+}
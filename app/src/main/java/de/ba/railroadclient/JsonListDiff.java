@@ -0,0 +1,202 @@
+package de.ba.railroadclient;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps a list in sync with a JSON array which is read again and again, e.g. the list of
+ * servers. Each item is identified by its JSON text. Items which are already known are reused,
+ * only new items are read. The list is changed with a few inserts and removes, or rebuilt if
+ * there are too many changes. An unchanged array costs no change of the list at all.
+ *
+ * @param <T> Type of the items
+ */
+@SuppressWarnings("WeakerAccess")
+public class JsonListDiff<T> {
+
+    /**
+     * With more changes, rebuilding the list is cheaper than single inserts and removes
+     */
+    private static final int MAX_INCREMENTAL_CHANGES = 16;
+
+    /**
+     * Creates the item of a JSON object
+     */
+    public interface ItemReader<T> {
+
+        /**
+         * @param json JSON object of the item
+         * @return The item, or null if it can not be read
+         */
+        T read(String json);
+
+    }
+
+    /**
+     * The list to change
+     */
+    public interface ListTarget<T> {
+
+        void remove(int index);
+
+        void insert(T item, int index);
+
+        void replaceAll(List<T> items);
+
+    }
+
+    /**
+     * JSON texts of the items in the list, in list order
+     */
+    private List<String> keys = new ArrayList<>();
+
+    /**
+     * Items of the list by their JSON text
+     */
+    private Map<String, T> items = new HashMap<>();
+
+    /**
+     * Bring the list up to date with an array.
+     *
+     * @param array  The current array, elements which are no JSON objects are skipped
+     * @param reader Reads new items
+     * @param target The list, it must contain the items of the last call
+     * @return true if the list was changed
+     */
+    public boolean update(JSONArray array, ItemReader<T> reader, ListTarget<T> target) {
+        return update(keys(array), reader, target);
+    }
+
+    /**
+     * The JSON texts of the items, which identify them. This is the expensive part of an
+     * update, it can be done on any thread, e.g. with a {@link ServerList}.
+     *
+     * @param array The array, elements which are no JSON objects are skipped
+     * @return JSON texts of the items in array order, without duplicates
+     */
+    public static List<String> keys(JSONArray array) {
+        List<String> keys = new ArrayList<>(array.length());
+        Set<String> seen = new HashSet<>();
+
+        for (int i = 0; i < array.length(); i++) {
+            Object value = array.opt(i);
+            if (!(value instanceof JSONObject)) {
+                continue;
+            }
+
+            String key = value.toString();
+            if (seen.add(key)) {
+                keys.add(key);
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * Bring the list up to date with the JSON texts of the items.
+     *
+     * @param itemKeys JSON texts of the items without duplicates, see {@link #keys(JSONArray)}
+     * @param reader   Reads new items
+     * @param target   The list, it must contain the items of the last call
+     * @return true if the list was changed
+     */
+    public boolean update(List<String> itemKeys, ItemReader<T> reader, ListTarget<T> target) {
+        List<String> newKeys = new ArrayList<>(itemKeys.size());
+        Map<String, T> newItems = new HashMap<>();
+
+        for (String key : itemKeys) {
+            // only new items are read
+            T item = items.get(key);
+            if (item == null) {
+                try {
+                    item = reader.read(key);
+                } catch (Throwable t) {
+                    Log.e("main", "can not create JSON object", t);
+                }
+                if (item == null) {
+                    continue;
+                }
+            }
+
+            newKeys.add(key);
+            newItems.put(key, item);
+        }
+
+        if (newKeys.equals(keys)) {
+            return false;
+        }
+
+        if (!applyIncremental(newKeys, newItems, target)) {
+            List<T> list = new ArrayList<>(newKeys.size());
+            for (String key : newKeys) {
+                list.add(newItems.get(key));
+            }
+            target.replaceAll(list);
+        }
+
+        keys = newKeys;
+        items = newItems;
+        return true;
+    }
+
+    /**
+     * @return Number of items in the list
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * Change the list with single removes and inserts. This is only possible if the items which
+     * stay in the list keep their order.
+     *
+     * @return false if the list was not changed, because it must be rebuilt
+     */
+    private boolean applyIncremental(List<String> newKeys, Map<String, T> newItems, ListTarget<T> target) {
+        List<String> keptOld = new ArrayList<>();
+        for (String key : keys) {
+            if (newItems.containsKey(key)) {
+                keptOld.add(key);
+            }
+        }
+
+        List<String> keptNew = new ArrayList<>();
+        for (String key : newKeys) {
+            if (items.containsKey(key)) {
+                keptNew.add(key);
+            }
+        }
+
+        int changes = keys.size() - keptOld.size() + newKeys.size() - keptNew.size();
+        if (changes > MAX_INCREMENTAL_CHANGES || !keptOld.equals(keptNew)) {
+            return false;
+        }
+
+        // remove from the end, so the indices of the other items stay valid
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            if (!newItems.containsKey(keys.get(i))) {
+                target.remove(i);
+            }
+        }
+
+        // insert in list order, so each index is valid when it is used
+        for (int i = 0; i < newKeys.size(); i++) {
+            String key = newKeys.get(i);
+            if (!items.containsKey(key)) {
+                target.insert(newItems.get(key), i);
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,589 @@
+package de.ba.railroadclient;
+
+import android.os.SystemClock;
+
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Write-combining command pipeline for a single JSON resource. All changes are merged into one
+ * pending delta which is sent with a single HTTP PATCH. At most one PATCH is in flight, changes
+ * made meanwhile are collected and sent as soon as the previous PATCH is finished. If a field is
+ * changed several times, only the latest value is sent.
+ * <p>
+ * With a {@link CommandJournal}, changes are not lost if the server is unreachable. They are
+ * stored in the journal, the pipeline is suspended and all changes are sent as one delta after
+ * {@link #resume()}.
+ * <p>
+ * With a {@link ResourceVersion} the writes are conditional. If another client changed the
+ * resource in the meantime, the server rejects the PATCH. The pipeline reads the resource
+ * again, lets the proxy rebase its local state and sends the same delta with the new version.
+ * Concurrent changes of different fields are kept this way.
+ * <p>
+ * A change can be submitted with a {@link CommitListener}, which learns if the PATCH containing
+ * the change was accepted. All fields of a change are always sent in the same PATCH.
+ */
+@SuppressWarnings("WeakerAccess")
+public class JsonPatchPipeline {
+
+    /**
+     * The version check of a conditional PATCH failed
+     */
+    private static final int HTTP_PRECONDITION_FAILED = 412;
+
+    /**
+     * Number of rebases in a row, after which the delta is sent unconditionally
+     */
+    private static final int MAX_REBASES = 3;
+
+    /**
+     * Is informed about the result of a submitted change
+     */
+    public interface CommitListener {
+
+        /**
+         * The change was accepted by the server
+         */
+        void committed();
+
+        /**
+         * The change was dropped
+         *
+         * @param error Why the change was dropped
+         */
+        void failed(VolleyError error);
+
+        /**
+         * The server was unreachable, the change is kept in the journal and sent again when the
+         * server is back. {@link #committed()} or {@link #failed(VolleyError)} follows later.
+         *
+         * @param error Why the change could not be sent
+         */
+        void parked(VolleyError error);
+
+    }
+
+    /**
+     * Is informed, when the local state must be rebased on a newer server state
+     */
+    public interface RebaseListener {
+
+        /**
+         * @param state   Current state of the resource as UTF-8 encoded JSON
+         * @param pending Local changes which will be sent again, they must be applied on top of
+         *                the state
+         */
+        void rebased(byte[] state, JSONObject pending);
+
+    }
+
+    /**
+     * HTTP request que. This queue can be shared with other tasks.
+     */
+    private RequestQueue requestQueue;
+
+    /**
+     * Will receive the error messages
+     */
+    private Response.ErrorListener errorListener;
+
+    /**
+     * URL of the resource to change, or null if we have no server
+     */
+    private String url;
+
+    /**
+     * Changes which are not sent yet
+     */
+    private JSONObject pending = new JSONObject();
+
+    /**
+     * {@link SystemClock#elapsedRealtime()} when the oldest pending change was submitted
+     */
+    private long pendingSince = 0;
+
+    /**
+     * Measures when written changes show up in the server state
+     */
+    private CommandObservation observation = new CommandObservation();
+
+    /**
+     * true while a PATCH is sent and not answered
+     */
+    private boolean inFlight = false;
+
+    /**
+     * Will be increased with every submitted change
+     */
+    private long revision = 0;
+
+    /**
+     * Stores changes which could not be sent, may be null
+     */
+    private CommandJournal journal;
+
+    /**
+     * true after a PATCH failed because the server was unreachable
+     */
+    private boolean suspended = false;
+
+    /**
+     * Version of the resource as seen by the last GET, or null for unconditional writes
+     */
+    private ResourceVersion version;
+
+    /**
+     * Is informed about rebases, may be null
+     */
+    private RebaseListener rebaseListener;
+
+    /**
+     * true while the resource is read again after a rejected PATCH
+     */
+    private boolean rebasing = false;
+
+    /**
+     * Number of rejected PATCH requests in a row
+     */
+    private int rebases = 0;
+
+    /**
+     * Listeners of the pending changes
+     */
+    private List<CommitListener> pendingListeners = new ArrayList<>();
+
+    /**
+     * Listeners of the changes in flight
+     */
+    private List<CommitListener> inFlightListeners = new ArrayList<>();
+
+    /**
+     * @param requestQueue  A request dispatch queue with a thread pool of dispatchers
+     * @param errorListener Callback interface for delivering error responses
+     */
+    public JsonPatchPipeline(RequestQueue requestQueue, Response.ErrorListener errorListener) {
+        this.requestQueue = requestQueue;
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * Change the resource to write to. Pending changes for the old resource are dropped.
+     *
+     * @param url URL of the resource, or null if there is no server
+     */
+    public void setURL(String url) {
+        if (url == null ? this.url == null : url.equals(this.url)) {
+            return;
+        }
+
+        if (journal != null && this.url != null) {
+            journal.detach(this.url, version);
+        }
+
+        // the pending changes are dropped
+        failed(pendingListeners, new VolleyError("resource changed"));
+
+        this.url = url;
+        this.pending = new JSONObject();
+        this.suspended = false;
+        this.rebasing = false;
+        this.rebases = 0;
+        observation.reset();
+
+        // continue with the changes which could not be sent before
+        if (journal != null && url != null) {
+            takeJournal();
+        }
+    }
+
+    /**
+     * Make the writes conditional. The version is shared with the GET requests of the proxy.
+     *
+     * @param version        Version of the resource as seen by the last GET, or null
+     * @param rebaseListener Is informed, when the local state must be rebased
+     */
+    public void setVersion(ResourceVersion version, RebaseListener rebaseListener) {
+        this.version = version;
+        this.rebaseListener = rebaseListener;
+    }
+
+    /**
+     * @param journal Journal to store changes which could not be sent, or null
+     */
+    public void setCommandJournal(CommandJournal journal) {
+        if (this.journal != null && url != null) {
+            this.journal.detach(url, version);
+        }
+
+        this.journal = journal;
+
+        if (journal != null && url != null) {
+            takeJournal();
+        }
+    }
+
+    /**
+     * Send the changes again after the server was unreachable, e.g. because a GET was
+     * successful. The journal entries of other resources are replayed as well.
+     */
+    public void resume() {
+        if (!suspended) {
+            return;
+        }
+
+        suspended = false;
+        flush();
+
+        if (journal != null) {
+            journal.replay(requestQueue);
+        }
+    }
+
+    /**
+     * Merge the journal entry of the current resource into the pending delta
+     */
+    private void takeJournal() {
+        JSONObject unsent = journal.attach(url);
+        if (unsent.length() == 0) {
+            return;
+        }
+
+        JsonDelta.merge(pending, unsent);
+        pending = unsent;
+        pendingSince = SystemClock.elapsedRealtime();
+        revision++;
+        flush();
+    }
+
+    /**
+     * Merge a change into the pending delta and send it, if no other PATCH is in flight.
+     *
+     * @param delta Changed fields of the resource
+     */
+    public void submit(JSONObject delta) {
+        if (delta.length() == 0) {
+            return;
+        }
+
+        if (pending.length() == 0) {
+            pendingSince = SystemClock.elapsedRealtime();
+        }
+
+        JsonDelta.merge(delta, pending);
+        revision++;
+
+        // the journal must always contain the latest values
+        if (journal != null && (suspended || journal.contains(url))) {
+            journal.record(url, delta);
+        }
+
+        flush();
+    }
+
+    /**
+     * Send a change at once with the highest priority, without waiting for the PATCH in
+     * flight, e.g. to stop a locomotive. The change is unconditional, so it can not be rejected
+     * because of a newer version.
+     *
+     * @param delta Changed fields of the resource
+     */
+    public void submitImmediately(final JSONObject delta) {
+        if (delta.length() == 0) {
+            return;
+        }
+
+        revision++;
+
+        // older values of these fields must not be sent anymore
+        Iterator<String> keys = delta.keys();
+        while (keys.hasNext()) {
+            pending.remove(keys.next());
+        }
+
+        if (journal != null && (suspended || journal.contains(url))) {
+            journal.record(url, delta);
+        }
+
+        if (url == null) {
+            return;
+        }
+
+        // the PATCH in flight may overtake us with older values, so send the change again
+        // after it
+        if (inFlight) {
+            if (pending.length() == 0) {
+                pendingSince = SystemClock.elapsedRealtime();
+            }
+            JsonDelta.merge(delta, pending);
+        }
+
+        final String patchURL = url;
+        TimedJsonObjectRequest patchRequest = new TimedJsonObjectRequest(Request.Method.PATCH, patchURL, delta, SystemClock.elapsedRealtime(), new Response.Listener<JSONObject>() {
+            @Override
+            public void onResponse(JSONObject response) {
+                if (journal != null) {
+                    journal.acknowledge(patchURL, delta);
+                }
+            }
+        }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                // try again with the pipeline, unless the fields were changed in the meantime
+                if (patchURL.equals(url)) {
+                    if (pending.length() == 0) {
+                        pendingSince = SystemClock.elapsedRealtime();
+                    }
+                    JsonDelta.merge(pending, delta);
+                    pending = delta;
+                    flush();
+                }
+
+                if (errorListener != null) {
+                    errorListener.onErrorResponse(error);
+                }
+            }
+        });
+        patchRequest.setPriority(TrafficClass.EMERGENCY);
+
+        // add the PATCH action to the request queue
+        requestQueue.add(patchRequest);
+    }
+
+    /**
+     * Merge a change into the pending delta and send it. The listener is informed, when the
+     * PATCH containing the change is answered. If the change doesn't change anything, the
+     * listener waits for the changes which are already on their way.
+     *
+     * @param delta          Changed fields of the resource
+     * @param commitListener Is informed about the result, may be null
+     */
+    public void submit(JSONObject delta, CommitListener commitListener) {
+        if (commitListener != null) {
+            if (delta.length() > 0 || pending.length() > 0) {
+                pendingListeners.add(commitListener);
+            } else if (inFlight || rebasing) {
+                inFlightListeners.add(commitListener);
+            } else {
+                commitListener.committed();
+            }
+        }
+
+        submit(delta);
+    }
+
+    /**
+     * @return true if there are no pending changes and no PATCH is in flight
+     */
+    public boolean isIdle() {
+        return !inFlight && !rebasing && pending.length() == 0;
+    }
+
+    /**
+     * The revision can be used to find out if changes were submitted in the meantime, e.g.
+     * while a GET was on its way.
+     *
+     * @return Number of submitted changes
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return true if written changes are not yet seen in the server state
+     */
+    public boolean isObserving() {
+        return observation.isWaiting();
+    }
+
+    /**
+     * Inform the pipeline about a state read from the server, used to measure the latency of
+     * the commands.
+     *
+     * @param state Complete state of the resource
+     */
+    public void observe(JSONObject state) {
+        observation.observe(state);
+    }
+
+    /**
+     * Send the pending delta, if there is one and no other PATCH is in flight
+     */
+    private void flush() {
+        if (inFlight || suspended || rebasing || url == null || pending.length() == 0) {
+            return;
+        }
+
+        final String patchURL = url;
+        final JSONObject delta = pending;
+        final long commandTime = pendingSince;
+        pending = new JSONObject();
+        inFlight = true;
+
+        final List<CommitListener> commitListeners = pendingListeners;
+        pendingListeners = new ArrayList<>();
+        inFlightListeners = commitListeners;
+
+        TimedJsonObjectRequest patchRequest = new TimedJsonObjectRequest(
+                Request.Method.PATCH /* the HTTP method to use*/,
+                patchURL /* URL of the resource to change */,
+                delta /* only the changed fields */,
+                commandTime /* used to measure the time in the queue */,
+                new Response.Listener<JSONObject>() {
+                    @Override
+                    public void onResponse(JSONObject response) {
+                        inFlight = false;
+                        rebases = 0;
+                        if (patchURL.equals(url)) {
+                            observation.acknowledged(patchURL, delta, commandTime);
+                        }
+                        if (journal != null) {
+                            journal.acknowledge(patchURL, delta);
+                        }
+                        inFlightListeners = new ArrayList<>();
+                        for (CommitListener commitListener : commitListeners) {
+                            commitListener.committed();
+                        }
+                        flush();
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        inFlight = false;
+                        inFlightListeners = new ArrayList<>();
+
+                        // someone else changed the resource, send the delta again on top of it
+                        if (version != null && error.networkResponse != null && error.networkResponse.statusCode == HTTP_PRECONDITION_FAILED && patchURL.equals(url)) {
+                            pendingListeners.addAll(0, commitListeners);
+                            rebase(delta, commandTime);
+                            return;
+                        }
+
+                        // the server is unreachable, keep the changes until it is back
+                        if (journal != null && isUnreachable(error) && patchURL.equals(url)) {
+                            JsonDelta.merge(pending, delta);
+                            pending = delta;
+                            pendingSince = commandTime;
+                            suspended = true;
+                            journal.record(patchURL, delta);
+                            pendingListeners.addAll(0, commitListeners);
+                            for (CommitListener commitListener : commitListeners) {
+                                commitListener.parked(error);
+                            }
+                        } else {
+                            failed(commitListeners, error);
+                        }
+
+                        if (errorListener != null) {
+                            errorListener.onErrorResponse(error);
+                        }
+                        flush();
+                    }
+                });
+
+        if (version != null) {
+            patchRequest.setVersion(version);
+        }
+
+        // add the PATCH action to the request queue
+        requestQueue.add(patchRequest);
+    }
+
+    /**
+     * Other errors without a response, e.g. a parse error, are not caused by the connection
+     * and would not go away if the changes were sent again.
+     *
+     * @param error Error of a request
+     * @return true if the server could not be reached or didn't answer in time
+     */
+    static boolean isUnreachable(VolleyError error) {
+        return error instanceof NoConnectionError || error instanceof TimeoutError;
+    }
+
+    /**
+     * Inform listeners about dropped changes
+     */
+    private void failed(List<CommitListener> commitListeners, VolleyError error) {
+        if (commitListeners.isEmpty()) {
+            return;
+        }
+
+        List<CommitListener> listeners = new ArrayList<>(commitListeners);
+        commitListeners.clear();
+        for (CommitListener commitListener : listeners) {
+            commitListener.failed(error);
+        }
+    }
+
+    /**
+     * Read the resource again after a rejected PATCH and send the delta with the new version.
+     *
+     * @param delta       The rejected delta
+     * @param commandTime When the oldest change of the delta was submitted
+     */
+    private void rebase(JSONObject delta, long commandTime) {
+        JsonDelta.merge(pending, delta);
+        pending = delta;
+        pendingSince = commandTime;
+
+        // give up, if the server rejects every version, and write unconditionally
+        if (++rebases > MAX_REBASES) {
+            version.invalidate();
+            flush();
+            return;
+        }
+
+        // the GET must deliver the resource in any case
+        version.forgetContent();
+
+        final String getURL = url;
+        rebasing = true;
+
+        ConditionalGetRequest getRequest = new ConditionalGetRequest(getURL, version, new Response.Listener<byte[]>() {
+            @Override
+            public void onResponse(byte[] response) {
+                rebasing = false;
+                if (!getURL.equals(url)) {
+                    return;
+                }
+
+                if (rebaseListener != null) {
+                    JSONObject changes = new JSONObject();
+                    JsonDelta.merge(pending, changes);
+                    rebaseListener.rebased(response, changes);
+                }
+                flush();
+            }
+        }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                rebasing = false;
+                if (errorListener != null) {
+                    errorListener.onErrorResponse(error);
+                }
+                flush();
+            }
+        });
+        getRequest.setUnchangedListener(new ConditionalGetRequest.UnchangedListener() {
+            @Override
+            public void onUnchanged() {
+                rebasing = false;
+                flush();
+            }
+        });
+        getRequest.setPriority(TrafficClass.CONTROL);
+
+        // add the GET action to the request queue
+        requestQueue.add(getRequest);
+    }
+}
@@ -0,0 +1,112 @@
+package de.ba.railroadclient;
+
+/**
+ * Histogram of latencies in milliseconds with logarithmic buckets. Each power of two is split
+ * into four buckets, so a percentile is at most 25% larger than the real value. Recording is
+ * cheap and doesn't allocate, so the histogram can be used on hot paths.
+ * <p>
+ * Values are recorded by the network threads and read by the main thread, so all methods are
+ * synchronized.
+ */
+@SuppressWarnings("WeakerAccess")
+public class LatencyHistogram {
+
+    /**
+     * Buckets per power of two
+     */
+    private static final int SUB_BUCKETS = 4;
+
+    private final long[] buckets = new long[SUB_BUCKETS * 63];
+
+    private long count = 0;
+
+    private long max = 0;
+
+    /**
+     * @param millis Latency to record, negative values are ignored
+     */
+    public synchronized void record(long millis) {
+        if (millis < 0) {
+            return;
+        }
+
+        buckets[index(millis)]++;
+        count++;
+        max = Math.max(max, millis);
+    }
+
+    /**
+     * @return Number of recorded values
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return Largest recorded value
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * @param percent Percentile between 0 and 100, e.g. 99 for p99
+     * @return Upper bound of the bucket which contains the percentile, 0 if nothing was recorded
+     */
+    public synchronized long getPercentile(double percent) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+        long seen = 0;
+
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+
+        return max;
+    }
+
+    /**
+     * Remove all recorded values
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        max = 0;
+    }
+
+    /**
+     * Values below 4 get their own bucket, larger values are split by their highest bits
+     */
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >> (exponent - 2)) & (SUB_BUCKETS - 1);
+
+        return SUB_BUCKETS + (exponent - 2) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return Largest value which belongs to the bucket
+     */
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + 2;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 2)) - 1;
+    }
+}
@@ -0,0 +1,124 @@
+package de.ba.railroadclient;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+import model.Locomotive;
+
+/**
+ * The fields of a locomotive which have changed between two states, with their old and new
+ * values. A listener can use it to update only the views of the changed fields.
+ */
+@SuppressWarnings("WeakerAccess")
+public class LocomotiveChange {
+
+    /**
+     * Old values of the changed fields
+     */
+    private final EnumMap<LocomotiveField, Object> oldValues = new EnumMap<>(LocomotiveField.class);
+
+    /**
+     * New values of the changed fields
+     */
+    private final EnumMap<LocomotiveField, Object> newValues = new EnumMap<>(LocomotiveField.class);
+
+    /**
+     * Compare two states.
+     *
+     * @param before Values of the old state, or null if there is none. Then all fields are
+     *               changed.
+     * @param after  Values of the new state
+     */
+    public LocomotiveChange(Map<LocomotiveField, Object> before, Map<LocomotiveField, Object> after) {
+        for (Map.Entry<LocomotiveField, Object> entry : after.entrySet()) {
+            LocomotiveField field = entry.getKey();
+            Object oldValue = before == null ? null : before.get(field);
+            Object newValue = entry.getValue();
+
+            if (before == null || !equal(oldValue, newValue)) {
+                oldValues.put(field, oldValue);
+                newValues.put(field, newValue);
+            }
+        }
+    }
+
+    /**
+     * @param locomotive Locomotive to read from
+     * @return The values of all fields
+     */
+    public static EnumMap<LocomotiveField, Object> capture(Locomotive locomotive) {
+        EnumMap<LocomotiveField, Object> values = new EnumMap<>(LocomotiveField.class);
+
+        for (LocomotiveField field : LocomotiveField.values()) {
+            values.put(field, field.get(locomotive));
+        }
+
+        return values;
+    }
+
+    /**
+     * Add a later change. The old values of this change are kept, the new values of the later
+     * change win.
+     *
+     * @param later Change which happened after this change
+     */
+    public void merge(LocomotiveChange later) {
+        for (Map.Entry<LocomotiveField, Object> entry : later.newValues.entrySet()) {
+            LocomotiveField field = entry.getKey();
+
+            if (!newValues.containsKey(field)) {
+                oldValues.put(field, later.oldValues.get(field));
+            }
+            newValues.put(field, entry.getValue());
+        }
+    }
+
+    /**
+     * @return true if no field has changed
+     */
+    public boolean isEmpty() {
+        return newValues.isEmpty();
+    }
+
+    /**
+     * @param field Field of the locomotive
+     * @return true if the field has changed
+     */
+    public boolean contains(LocomotiveField field) {
+        return newValues.containsKey(field);
+    }
+
+    /**
+     * @return The changed fields
+     */
+    public Set<LocomotiveField> getFields() {
+        return Collections.unmodifiableSet(newValues.keySet());
+    }
+
+    /**
+     * @param field Changed field
+     * @return Value before the change, null if the field has not changed or was not known
+     */
+    public Object getOldValue(LocomotiveField field) {
+        return oldValues.get(field);
+    }
+
+    /**
+     * @param field Changed field
+     * @return Value after the change, null if the field has not changed
+     */
+    public Object getNewValue(LocomotiveField field) {
+        return newValues.get(field);
+    }
+
+    @Override
+    public String toString() {
+        return "LocomotiveChange" + newValues;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,138 @@
+package de.ba.railroadclient;
+
+import android.util.JsonReader;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+
+import model.Locomotive;
+import model.LocomotiveDAO;
+import model.LocomotivePOJO;
+
+/**
+ * Decodes locomotives from JSON in a single pass. In contrast to {@link model.LocomotiveDAO}
+ * the values are written straight into an existing locomotive, no temporary string or
+ * object is created.
+ */
+@SuppressWarnings("WeakerAccess")
+public class LocomotiveCodec {
+
+    /**
+     * Codec for a {@link PolledResource} of locomotives
+     */
+    public static final ResourceCodec<Locomotive> RESOURCE_CODEC = new ResourceCodec<Locomotive>() {
+
+        @Override
+        public boolean read(byte[] json, Locomotive target) {
+            return LocomotiveCodec.read(json, target);
+        }
+
+        @Override
+        public boolean read(String json, Locomotive target) {
+            return LocomotiveCodec.read(json, target);
+        }
+
+        @Override
+        public Locomotive create() {
+            return new LocomotivePOJO();
+        }
+
+        @Override
+        public void copy(Locomotive source, Locomotive target) {
+            LocomotiveCodec.copy(source, target);
+        }
+
+        @Override
+        public JSONObject toJSON(Locomotive resource) {
+            return LocomotiveDAO.toJSON(resource);
+        }
+    };
+
+    private LocomotiveCodec() {
+    }
+
+    /**
+     * @param json   Locomotive as UTF-8 encoded JSON, e.g. the body of a HTTP response
+     * @param target Locomotive to change
+     * @return true if the locomotive could be read
+     */
+    public static boolean read(byte[] json, Locomotive target) {
+        try {
+            return read(new InputStreamReader(new ByteArrayInputStream(json), "UTF-8"), target);
+        } catch (UnsupportedEncodingException e) {
+            Log.e("main", "UTF-8 not supported", e);
+            return false;
+        }
+    }
+
+    /**
+     * @param json   Locomotive as JSON string
+     * @param target Locomotive to change
+     * @return true if the locomotive could be read
+     */
+    public static boolean read(String json, Locomotive target) {
+        return read(new StringReader(json), target);
+    }
+
+    /**
+     * Read all known fields of a JSON object into a locomotive. Unknown fields are skipped,
+     * missing fields are not changed.
+     *
+     * @param json   Locomotive as JSON
+     * @param target Locomotive to change
+     * @return true if the locomotive could be read
+     */
+    public static boolean read(Reader json, Locomotive target) {
+        JsonReader reader = new JsonReader(json);
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                LocomotiveField field = LocomotiveField.forKey(reader.nextName());
+
+                if (field == null) {
+                    reader.skipValue();
+                } else {
+                    field.read(reader, target);
+                }
+            }
+            reader.endObject();
+
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.e("main", "can not read locomotive", e);
+            return false;
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // nothing to do, the stream is in memory
+            }
+        }
+    }
+
+    /**
+     * Copy all fields of a locomotive.
+     *
+     * @param source Locomotive to copy
+     * @param target Locomotive to change
+     */
+    public static void copy(Locomotive source, Locomotive target) {
+        target.setId(source.getId());
+        target.setSpeed(source.getSpeed());
+        target.setDirection(source.getDirection());
+        target.setName(source.getName());
+        target.setNumber(source.getNumber());
+        target.setHeadLight(source.isHeadLight());
+        target.setCabineLighting(source.isCabineLighting());
+        target.setHornSound(source.isHornSound());
+        target.setDrivingSound(source.isDrivingSound());
+    }
+}
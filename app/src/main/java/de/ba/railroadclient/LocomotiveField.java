@@ -0,0 +1,192 @@
+package de.ba.railroadclient;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import model.Locomotive;
+import model.LocomotiveDAO;
+
+/**
+ * The fields of a {@link Locomotive}. Each field knows how to read and write itself, so a
+ * locomotive can be decoded from a JSON stream without building a temporary object.
+ * <p>
+ * The JSON keys are the names written by {@link LocomotiveDAO}, LocomotiveFieldTest checks
+ * that both agree.
+ */
+@SuppressWarnings("WeakerAccess")
+public enum LocomotiveField {
+
+    ID("id") {
+        @Override
+        public Object get(Locomotive locomotive) {
+            return locomotive.getId();
+        }
+
+        @Override
+        public void read(JsonReader reader, Locomotive locomotive) throws IOException {
+            locomotive.setId(nextString(reader));
+        }
+    },
+
+    SPEED("speed") {
+        @Override
+        public Object get(Locomotive locomotive) {
+            return locomotive.getSpeed();
+        }
+
+        @Override
+        public void read(JsonReader reader, Locomotive locomotive) throws IOException {
+            locomotive.setSpeed(reader.nextInt());
+        }
+    },
+
+    DIRECTION("direction") {
+        @Override
+        public Object get(Locomotive locomotive) {
+            return locomotive.getDirection();
+        }
+
+        @Override
+        public void read(JsonReader reader, Locomotive locomotive) throws IOException {
+            locomotive.setDirection(reader.nextInt());
+        }
+    },
+
+    NAME("name") {
+        @Override
+        public Object get(Locomotive locomotive) {
+            return locomotive.getName();
+        }
+
+        @Override
+        public void read(JsonReader reader, Locomotive locomotive) throws IOException {
+            locomotive.setName(nextString(reader));
+        }
+    },
+
+    NUMBER("number") {
+        @Override
+        public Object get(Locomotive locomotive) {
+            return locomotive.getNumber();
+        }
+
+        @Override
+        public void read(JsonReader reader, Locomotive locomotive) throws IOException {
+            locomotive.setNumber(nextString(reader));
+        }
+    },
+
+    HEAD_LIGHT("headLight") {
+        @Override
+        public Object get(Locomotive locomotive) {
+            return locomotive.isHeadLight();
+        }
+
+        @Override
+        public void read(JsonReader reader, Locomotive locomotive) throws IOException {
+            locomotive.setHeadLight(reader.nextBoolean());
+        }
+    },
+
+    CABINE_LIGHTING("cabineLighting") {
+        @Override
+        public Object get(Locomotive locomotive) {
+            return locomotive.isCabineLighting();
+        }
+
+        @Override
+        public void read(JsonReader reader, Locomotive locomotive) throws IOException {
+            locomotive.setCabineLighting(reader.nextBoolean());
+        }
+    },
+
+    HORN_SOUND("hornSound") {
+        @Override
+        public Object get(Locomotive locomotive) {
+            return locomotive.isHornSound();
+        }
+
+        @Override
+        public void read(JsonReader reader, Locomotive locomotive) throws IOException {
+            locomotive.setHornSound(reader.nextBoolean());
+        }
+    },
+
+    DRIVING_SOUND("drivingSound") {
+        @Override
+        public Object get(Locomotive locomotive) {
+            return locomotive.isDrivingSound();
+        }
+
+        @Override
+        public void read(JsonReader reader, Locomotive locomotive) throws IOException {
+            locomotive.setDrivingSound(reader.nextBoolean());
+        }
+    };
+
+    /**
+     * Fields by their JSON key
+     */
+    private static final Map<String, LocomotiveField> FIELDS_BY_KEY = new HashMap<>();
+
+    static {
+        for (LocomotiveField field : values()) {
+            FIELDS_BY_KEY.put(field.key, field);
+        }
+    }
+
+    /**
+     * JSON key of this field as written by {@link LocomotiveDAO}
+     */
+    private final String key;
+
+    LocomotiveField(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @param locomotive Locomotive to read from
+     * @return Value of this field
+     */
+    public abstract Object get(Locomotive locomotive);
+
+    /**
+     * Read the next value from a JSON stream into this field.
+     *
+     * @param reader     Stream positioned at the value of this field
+     * @param locomotive Locomotive to change
+     * @throws IOException if the value can not be read
+     */
+    public abstract void read(JsonReader reader, Locomotive locomotive) throws IOException;
+
+    /**
+     * @param key JSON key written by {@link LocomotiveDAO}
+     * @return The field with this key, or null if the key is unknown
+     */
+    public static LocomotiveField forKey(String key) {
+        return FIELDS_BY_KEY.get(key);
+    }
+
+    /**
+     * @return JSON key of this field as written by {@link LocomotiveDAO}
+     */
+    public String key() {
+        return key;
+    }
+
+    /**
+     * @return The next string or null from the stream
+     */
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        return reader.nextString();
+    }
+}
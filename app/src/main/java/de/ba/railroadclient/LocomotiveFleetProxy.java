@@ -0,0 +1,297 @@
+package de.ba.railroadclient;
+
+import android.os.SystemClock;
+
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import model.Locomotive;
+import model.LocomotivePOJO;
+import model.LocomotiveServer;
+
+/**
+ * Read only proxy for many locomotives, e.g. for a dashboard. All locomotives are polled in
+ * rounds on one shared schedule. Only a few requests are sent at the same time, the others wait
+ * until a request is answered. Each locomotive has its own listeners, which are informed when
+ * this locomotive has changed.
+ * <p>
+ * Use {@link LocomotiveJSONProxy} to control a locomotive.
+ */
+@SuppressWarnings("WeakerAccess")
+public class LocomotiveFleetProxy {
+
+    /**
+     * Maximum number of GET requests sent at the same time
+     */
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    /**
+     * State of a single locomotive of the fleet
+     */
+    private static class Member {
+
+        LocomotiveServer locomotiveServer;
+
+        Locomotive pojo = new LocomotivePOJO();
+
+        ResourceVersion version = new ResourceVersion();
+
+        List<LocomotiveJSONProxy.LocomotiveListener> locomotiveListeners = new ArrayList<>();
+
+        boolean polling = false;
+
+        /**
+         * {@link SystemClock#elapsedRealtime()} when the state was confirmed by the server,
+         * 0 if never
+         */
+        long confirmedTime = 0;
+    }
+
+    /**
+     * HTTP request que. This queue can be shared with other tasks.
+     */
+    private RequestQueue requestQueue;
+
+    /**
+     * Will receive the error messages
+     */
+    private Response.ErrorListener errorListener;
+
+    /**
+     * the scheduler is responsible for starting the rounds
+     */
+    private PollScheduler pollScheduler;
+
+    /**
+     * Delay between two rounds, grows while no locomotive changes
+     */
+    private AdaptivePollInterval pollInterval = new AdaptivePollInterval(2000, 2000, 20000);
+
+    /**
+     * All locomotives by their REST URL
+     */
+    private Map<String, Member> members = new LinkedHashMap<>();
+
+    /**
+     * Locomotives which wait for their GET in the current round
+     */
+    private ArrayDeque<Member> waiting = new ArrayDeque<>();
+
+    /**
+     * Number of GET requests which are not answered yet
+     */
+    private int inFlight = 0;
+
+    /**
+     * Results of the current round
+     */
+    private boolean roundChanged = false;
+
+    private boolean roundFailed = false;
+
+    /**
+     * Create a proxy without locomotives
+     *
+     * @param requestQueue  A request dispatch queue with a thread pool of dispatchers
+     * @param errorListener Callback interface for delivering error responses
+     */
+    public LocomotiveFleetProxy(RequestQueue requestQueue, Response.ErrorListener errorListener) {
+        this.requestQueue = requestQueue;
+        this.errorListener = errorListener;
+        this.pollScheduler = PollScheduler.getMainScheduler();
+    }
+
+    /**
+     * Start to watch a locomotive. A locomotive can have several listeners.
+     *
+     * @param locomotiveServer   Server of the locomotive
+     * @param locomotiveListener Will be informed if this locomotive changes, may be null
+     */
+    public void addLocomotive(LocomotiveServer locomotiveServer, LocomotiveJSONProxy.LocomotiveListener locomotiveListener) {
+        Member member = members.get(locomotiveServer.getRestURL());
+
+        if (member == null) {
+            member = new Member();
+            member.locomotiveServer = locomotiveServer;
+            members.put(locomotiveServer.getRestURL(), member);
+
+            // start the first round, if we are idle
+            if (inFlight == 0 && waiting.isEmpty()) {
+                pollScheduler.schedule(roundTask, 0);
+            }
+        }
+
+        if (locomotiveListener != null && !member.locomotiveListeners.contains(locomotiveListener)) {
+            member.locomotiveListeners.add(locomotiveListener);
+        }
+    }
+
+    /**
+     * Stop to watch a locomotive. All listeners of this locomotive are removed.
+     *
+     * @param locomotiveServer Server of the locomotive
+     */
+    public void removeLocomotive(LocomotiveServer locomotiveServer) {
+        Member member = members.remove(locomotiveServer.getRestURL());
+
+        if (member != null) {
+            waiting.remove(member);
+            member.locomotiveListeners.clear();
+        }
+
+        if (members.isEmpty()) {
+            pollScheduler.cancel(roundTask);
+        }
+    }
+
+    /**
+     * @param locomotiveServer Server of the locomotive
+     * @return Last known state of the locomotive, or null if the locomotive is not watched.
+     * The object must not be changed.
+     */
+    public Locomotive getLocomotive(LocomotiveServer locomotiveServer) {
+        Member member = members.get(locomotiveServer.getRestURL());
+        return member == null ? null : member.pojo;
+    }
+
+    /**
+     * @param locomotiveServer Server of the locomotive
+     * @param maxAge           Maximum age of the state in milliseconds
+     * @return State of the locomotive, or null if the locomotive is not watched or its state is
+     * unknown or too old. The object must not be changed.
+     */
+    public Locomotive getSnapshot(LocomotiveServer locomotiveServer, long maxAge) {
+        Member member = members.get(locomotiveServer.getRestURL());
+
+        if (member == null || member.confirmedTime == 0 || SystemClock.elapsedRealtime() - member.confirmedTime > maxAge) {
+            return null;
+        }
+
+        return member.pojo;
+    }
+
+    /**
+     * @return Number of watched locomotives
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * Starts a new round, every locomotive will be read once
+     */
+    private PollScheduler.PollTask roundTask = new PollScheduler.PollTask() {
+
+        @Override
+        public void poll() {
+            roundChanged = false;
+            roundFailed = false;
+
+            for (Member member : members.values()) {
+                if (!member.polling) {
+                    waiting.add(member);
+                }
+            }
+
+            sendRequests();
+        }
+    };
+
+    /**
+     * Send requests for waiting locomotives until the limit is reached. Plan the next round,
+     * if the current round is complete.
+     */
+    private void sendRequests() {
+        while (inFlight < MAX_CONCURRENT_REQUESTS && !waiting.isEmpty()) {
+            poll(waiting.poll());
+        }
+
+        if (inFlight > 0 || !waiting.isEmpty() || members.isEmpty()) {
+            return;
+        }
+
+        if (roundFailed && !roundChanged) {
+            pollInterval.failed();
+        } else if (roundChanged) {
+            pollInterval.changed();
+        } else {
+            pollInterval.unchanged();
+        }
+        pollScheduler.schedule(roundTask, pollInterval.next(false));
+    }
+
+    /**
+     * Decodes the locomotives on the network thread
+     */
+    private DecodedGetRequest.Decoder<Locomotive> decoder = new DecodedGetRequest.Decoder<Locomotive>() {
+
+        @Override
+        public Locomotive decode(byte[] body) {
+            Locomotive locomotive = new LocomotivePOJO();
+            return LocomotiveCodec.read(body, locomotive) ? locomotive : null;
+        }
+    };
+
+    /**
+     * Read a single locomotive
+     */
+    private void poll(final Member member) {
+        member.polling = true;
+        inFlight++;
+
+        DecodedGetRequest<Locomotive> getRequest = new DecodedGetRequest<>(member.locomotiveServer.getRestURL(), member.version, decoder, new Response.Listener<Locomotive>() {
+            @Override
+            public void onResponse(Locomotive response) {
+                MainThreadMonitor.mark(MainThreadMonitor.Source.POLL_RESPONSE);
+
+                // the round is evaluated by finished(), so the change is recorded before
+                LocomotiveCodec.copy(response, member.pojo);
+                member.confirmedTime = SystemClock.elapsedRealtime();
+                roundChanged = true;
+
+                finished(member);
+
+                for (LocomotiveJSONProxy.LocomotiveListener locomotiveListener : new ArrayList<>(member.locomotiveListeners)) {
+                    locomotiveListener.locomotiveChanged(member.pojo);
+                }
+            }
+        }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                roundFailed = true;
+                finished(member);
+
+                if (errorListener != null) {
+                    errorListener.onErrorResponse(error);
+                }
+            }
+        });
+        getRequest.setUnchangedListener(new DecodedGetRequest.UnchangedListener() {
+            @Override
+            public void onUnchanged() {
+                member.confirmedTime = SystemClock.elapsedRealtime();
+                finished(member);
+            }
+        });
+        getRequest.setPriority(TrafficClass.BACKGROUND);
+
+        // add the GET action to the request que
+        requestQueue.add(getRequest);
+    }
+
+    /**
+     * A request of the current round is answered, send the next one
+     */
+    private void finished(Member member) {
+        member.polling = false;
+        inFlight--;
+        sendRequests();
+    }
+}
@@ -0,0 +1,121 @@
+package de.ba.railroadclient;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import model.Locomotive;
+
+/**
+ * Collects the changes of a locomotive and hands them to the UI at most once per display
+ * frame. All changes which arrive between two frames are merged into one, so the number of
+ * layout passes doesn't grow with the update rate.
+ * <p>
+ * The frames are taken from the {@link Choreographer}. It is not available before Android 4.1,
+ * there a {@link Handler} with the duration of a frame is used instead. The renderer must be
+ * used on the main thread.
+ */
+@SuppressWarnings("WeakerAccess")
+public class LocomotiveFrameRenderer implements LocomotiveJSONProxy.LocomotiveFieldListener {
+
+    /**
+     * Duration of a frame at 60 Hz, used without Choreographer
+     */
+    private static final long FRAME_MILLIS = 16;
+
+    /**
+     * Will update the views
+     */
+    private LocomotiveJSONProxy.LocomotiveFieldListener target;
+
+    /**
+     * The locomotive of the last change
+     */
+    private Locomotive locomotive;
+
+    /**
+     * Changes since the last frame, null if there are none
+     */
+    private LocomotiveChange pending;
+
+    /**
+     * Used without Choreographer
+     */
+    private Handler handler;
+
+    /**
+     * Used with Choreographer
+     */
+    private FrameScheduler frameScheduler;
+
+    /**
+     * Applies the pending changes
+     */
+    private Runnable renderTask = new Runnable() {
+        @Override
+        public void run() {
+            LocomotiveChange change = pending;
+            pending = null;
+
+            if (change != null) {
+                MainThreadMonitor.mark(MainThreadMonitor.Source.UI_CALLBACK);
+                target.locomotiveFieldsChanged(locomotive, change);
+            }
+        }
+    };
+
+    /**
+     * @param target Listener which updates the views, it is called once per frame at most
+     */
+    public LocomotiveFrameRenderer(LocomotiveJSONProxy.LocomotiveFieldListener target) {
+        this.target = target;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            frameScheduler = new FrameScheduler(renderTask);
+        } else {
+            handler = new Handler(Looper.getMainLooper());
+        }
+    }
+
+    @Override
+    public void locomotiveFieldsChanged(Locomotive locomotive, LocomotiveChange change) {
+        this.locomotive = locomotive;
+
+        // a frame is already planned, it will show this change as well
+        if (pending != null) {
+            pending.merge(change);
+            return;
+        }
+
+        pending = change;
+        if (frameScheduler != null) {
+            frameScheduler.schedule();
+        } else {
+            handler.postDelayed(renderTask, FRAME_MILLIS);
+        }
+    }
+
+    /**
+     * Wraps the Choreographer, so this class is only loaded on Android 4.1 and newer
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameScheduler implements Choreographer.FrameCallback {
+
+        private final Runnable task;
+
+        FrameScheduler(Runnable task) {
+            this.task = task;
+        }
+
+        void schedule() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            task.run();
+        }
+    }
+}
@@ -1,17 +1,16 @@
 package de.ba.railroadclient;
 
-import android.os.Handler;
-import android.os.Looper;
+import android.util.Log;
 
-import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
-import com.android.volley.toolbox.JsonObjectRequest;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.EnumMap;
+
 import model.Locomotive;
-import model.LocomotiveDAO;
 import model.LocomotivePOJO;
 import model.LocomotiveServer;
 
@@ -21,33 +20,42 @@ import model.LocomotiveServer;
  * server and update itself. After each update
  * {@link LocomotiveJSONProxy.LocomotiveListener#locomotiveChanged(Locomotive)} ({@link Locomotive})}
  * is called. To be notified about updates one should call the constructor with a valid listener.
+ * The locomotive is polled and written by a {@link PolledResource}. If the server pushes its
+ * changes (see {@link PushSubscription}), polling is stopped until the push connection breaks.
  */
 public class LocomotiveJSONProxy implements Locomotive {
 
     /**
-     * HTTP request que. This queue can be shared with other tasks.
+     * Polls the locomotive and writes its changes
      */
-    private RequestQueue requestQueue;
+    private PolledResource<Locomotive> resource;
 
     /**
-     * the Update Handler is responsible for calling the update task
+     * Simple POJO to store locomotive state. It holds the state received from the server and
+     * our changes, so it is the base of the changed fields sent to the server.
      */
-    private Handler updateHandler;
+    private Locomotive pojo;
 
     /**
-     * Will receive the error messages
+     * Recent state shown until the first state of the server arrives, null if none. It is never
+     * used to compute the changed fields, because it may be outdated.
      */
-    private Response.ErrorListener errorListener;
+    private Locomotive snapshot;
 
     /**
-     * Simple POJO to store locomotive state
+     * Listener will be inform,ed, if we receive a new object from the server
      */
-    private Locomotive pojo;
+    private LocomotiveListener locomotiveListener;
 
     /**
-     * Listener will be inform,ed, if we receive a new object from the server
+     * Will be informed about the changed fields, may be null
      */
-    private LocomotiveListener locomotiveListener;
+    private LocomotiveFieldListener fieldListener;
+
+    /**
+     * Values of the fields as last delivered to the {@link #fieldListener}, null if none
+     */
+    private EnumMap<LocomotiveField, Object> deliveredValues;
 
     private LocomotiveServer locomotiveServer;
 
@@ -61,6 +69,20 @@ public class LocomotiveJSONProxy implements Locomotive {
 
     }
 
+    /**
+     * Should be implemented from a listener which only needs the changed fields of the
+     * locomotive, e.g. to update only the views of these fields.
+     */
+    public interface LocomotiveFieldListener {
+
+        /**
+         * @param locomotive The current locomotive
+         * @param change     Fields which have changed since the last call, never empty
+         */
+        void locomotiveFieldsChanged(Locomotive locomotive, LocomotiveChange change);
+
+    }
+
     /**
      * Create a proxy object which is connected to a server
      *
@@ -70,131 +92,135 @@ public class LocomotiveJSONProxy implements Locomotive {
      */
     public LocomotiveJSONProxy(RequestQueue requestQueue, Response.ErrorListener errorListener, LocomotiveListener locomotiveListener) {
         this.pojo = new LocomotivePOJO();
-
-        this.requestQueue = requestQueue;
-        this.errorListener = errorListener;
         this.locomotiveListener = locomotiveListener;
 
-        // update the locomotive
-        updateHandler = new Handler(Looper.getMainLooper());
-        updateHandler.post(updateRunnable);
+        // the locomotive is polled fast while it is moving
+        this.resource = new PolledResource<Locomotive>(requestQueue, errorListener, LocomotiveCodec.RESOURCE_CODEC, pojo, new PolledResource.ResourceListener<Locomotive>() {
+            @Override
+            public void resourceChanged(Locomotive locomotive) {
+                // the server has answered, the snapshot is outdated
+                snapshot = null;
+                notifyListeners();
+            }
+        }) {
+            @Override
+            protected boolean isActive(Locomotive locomotive) {
+                return locomotive.getSpeed() != 0;
+            }
+        };
+        this.resource.setPushEnabled(true);
     }
 
     public void setLocomotiveServer(LocomotiveServer locomotiveServer) {
-        this.locomotiveServer = locomotiveServer;
+        setLocomotiveServer(locomotiveServer, null);
     }
 
     /**
-     * The Updater will periodically read the current locomotive speed and update the view,
-     * e.g. the speed slider and direction buttons
+     * @return The current server, or null
      */
-    private Runnable updateRunnable = new Runnable() {
+    public LocomotiveServer getLocomotiveServer() {
+        return locomotiveServer;
+    }
 
-        @Override
-        public void run() {
-            // call this method again in 2 seconds
-            updateHandler.postDelayed(updateRunnable, 2000);
+    /**
+     * Change the server and show a known state of its locomotive at once. The state is only
+     * shown, it is replaced by the first state of the server.
+     *
+     * @param locomotiveServer Server of the locomotive, or null
+     * @param snapshot         Recent state of the locomotive, e.g. from a
+     *                         {@link LocomotivePrefetcher}, or null
+     */
+    public void setLocomotiveServer(LocomotiveServer locomotiveServer, Locomotive snapshot) {
+        this.locomotiveServer = locomotiveServer;
+        this.snapshot = null;
 
-            // do we have a server?
-            if (locomotiveServer == null) {
-                return;
-            }
+        // the new locomotive is read immediately
+        resource.setURL(locomotiveServer == null ? null : locomotiveServer.getRestURL());
 
-            // connect to this server
-            JsonObjectRequest getRequest = new JsonObjectRequest(Request.Method.GET, locomotiveServer.getRestURL(), null, new Response.Listener<JSONObject>() {
-                @Override
-                public void onResponse(JSONObject response) {
-                    // read the current locomotive
-                    Locomotive currentLocomotive = LocomotiveDAO.read(response.toString());
-                    setId(currentLocomotive.getId());
-                    LocomotiveDAO.copy(currentLocomotive, pojo);
-
-                    if (locomotiveListener != null) {
-                        locomotiveListener.locomotiveChanged(LocomotiveJSONProxy.this);
-                    }
-                }
-            }, errorListener);
-
-            // add the GET action to the request que
-            requestQueue.add(getRequest);
+        if (locomotiveServer != null && snapshot != null) {
+            this.snapshot = new LocomotivePOJO();
+            LocomotiveCodec.copy(snapshot, this.snapshot);
+            notifyListeners();
         }
-    };
+    }
 
     /**
-     * The interface defines a method to change a locomotive. An instance can be used
-     * as a parameter for {@link #postLocomotive(LocomotiveChanger)}.
+     * @return The state to show: the snapshot until the server has answered, then the POJO
      */
-    private interface LocomotiveChanger {
+    private Locomotive shown() {
+        return snapshot != null ? snapshot : pojo;
+    }
 
-        /**
-         * @param locomotive Locomotive to change
-         */
-        void changeLocomotive(Locomotive locomotive);
+    /**
+     * Change the POJO and send the changed field. A shown snapshot is changed as well, so the
+     * change is visible before the server answers. Until the server has answered, the setters
+     * don't skip values equal to the POJO, it doesn't hold the state of the server yet.
+     *
+     * @param field   Field which is changed
+     * @param changer Changes the locomotive
+     */
+    private void change(LocomotiveField field, PolledResource.Changer<Locomotive> changer) {
+        resource.change(field.key(), changer);
+
+        if (snapshot != null) {
+            changer.change(snapshot);
+        }
     }
 
     /**
-     * (1) Read a locomotive from current <code>locomotiveServer</code>
-     * (2) Change the locomotive, using the {@link LocomotiveChanger}
-     * (3) Write back the changed locomotive to current <code>locomotiveServer</code>
+     * The field listener is informed with the first state, all fields count as changed then.
+     *
+     * @param fieldListener Will be informed about the changed fields, or null
      */
-    private void postLocomotive(final LocomotiveChanger locomotiveChanger) {
+    public void setLocomotiveFieldListener(LocomotiveFieldListener fieldListener) {
+        this.fieldListener = fieldListener;
+        this.deliveredValues = null;
+    }
 
-        // do we have a server?
-        if (locomotiveServer == null) {
-            return;
+    /**
+     * Inform the listeners about a new state of the locomotive
+     */
+    private void notifyListeners() {
+        if (locomotiveListener != null) {
+            locomotiveListener.locomotiveChanged(this);
+        }
+
+        if (fieldListener != null) {
+            // compare with the state the listener knows
+            EnumMap<LocomotiveField, Object> values = LocomotiveChange.capture(shown());
+            LocomotiveChange change = new LocomotiveChange(deliveredValues, values);
+            deliveredValues = values;
+
+            if (!change.isEmpty()) {
+                fieldListener.locomotiveFieldsChanged(this, change);
+            }
         }
+    }
 
-        // send changes to this server
-        JsonObjectRequest getRequest = new JsonObjectRequest(
-                Request.Method.GET /* the HTTP method to use*/,
-                locomotiveServer.getRestURL() /* URL to fetch the JSON from */,
-                null /* A JSONObject to post with the request */,
-                new Response.Listener<JSONObject>() {
-                    @Override
-                    public void onResponse(JSONObject getResponse) {
-                        // read the current locomotive and increase speed
-                        Locomotive locomotive = LocomotiveDAO.read(getResponse.toString());
-                        locomotiveChanger.changeLocomotive(locomotive);
-
-                        // get a AbstractJsonArrayAdapter string from it
-                        JSONObject jsonObject = LocomotiveDAO.toJSON(locomotive);
-
-                        // debug the current locomotive
-                        JsonObjectRequest postRequest = new JsonObjectRequest(
-                                Request.Method.PATCH /* the HTTP method to use*/,
-                                locomotiveServer.getRestURL() /* URL to fetch the JSON from */,
-                                jsonObject /* JSONObject to post with the request */,
-                                new Response.Listener<JSONObject>() {
-                                    @Override
-                                    public void onResponse(JSONObject postResponse) {
-                                    }
-                                } /* Empty listener to receive the JSON response */,
-                                errorListener /* Error listener, or null to ignore errors. */);
-
-                        // add the POST action to the request queue
-                        requestQueue.add(postRequest);
-                    }
-                }, errorListener  /* Error listener, or null to ignore errors. */);
-
-        // add the GET action to the request que
-        requestQueue.add(getRequest);
+    /**
+     * Changes which could not be sent, because the server was unreachable, are stored in the
+     * journal and sent again as soon as the server answers.
+     *
+     * @param journal Journal shared by all proxies, or null
+     */
+    public void setCommandJournal(CommandJournal journal) {
+        resource.setCommandJournal(journal);
     }
 
     @Override
     public String getId() {
-        return pojo.getId();
+        return shown().getId();
     }
 
     @Override
     public void setId(final String id) {
-        if (equalStrings(pojo.getId(), id)) {
+        if (resource.isLoaded() && equalStrings(pojo.getId(), id)) {
             return;
         }
 
-        pojo.setId(id);
-        postLocomotive(new LocomotiveChanger() {
+        change(LocomotiveField.ID, new PolledResource.Changer<Locomotive>() {
             @Override
-            public void changeLocomotive(Locomotive locomotive) {
+            public void change(Locomotive locomotive) {
                 locomotive.setId(id);
             }
         });
@@ -202,27 +228,50 @@ public class LocomotiveJSONProxy implements Locomotive {
 
     @Override
     public int getSpeed() {
-        return pojo.getSpeed();
+        return shown().getSpeed();
     }
 
     @Override
     public void setSpeed(final int speed) {
-        if (pojo.getSpeed() == speed) {
+        if (resource.isLoaded() && pojo.getSpeed() == speed) {
             return;
         }
 
-        pojo.setSpeed(speed);
-        postLocomotive(new LocomotiveChanger() {
+        change(LocomotiveField.SPEED, new PolledResource.Changer<Locomotive>() {
             @Override
-            public void changeLocomotive(Locomotive locomotive) {
+            public void change(Locomotive locomotive) {
                 locomotive.setSpeed(speed);
             }
         });
     }
 
+    /**
+     * Stop the locomotive at once. The stop is sent even if the speed is already 0 and goes
+     * ahead of all other requests in the queue. The listeners are informed at once.
+     */
+    public void emergencyStop() {
+        pojo.setSpeed(0);
+        if (snapshot != null) {
+            snapshot.setSpeed(0);
+        }
+
+        // the stop is not started by the speed view, so it must be shown
+        notifyListeners();
+
+        // a delta with the speed only
+        JSONObject delta = new JSONObject();
+        try {
+            delta.put(LocomotiveField.SPEED.key(), 0);
+        } catch (JSONException e) {
+            Log.e("main", "can not stop locomotive", e);
+            return;
+        }
+        resource.submitImmediately(delta);
+    }
+
     @Override
     public int getDirection() {
-        return pojo.getDirection();
+        return shown().getDirection();
     }
 
     /**
@@ -233,15 +282,13 @@ public class LocomotiveJSONProxy implements Locomotive {
      */
     @Override
     public void setDirection(final int direction) {
-        if (direction == pojo.getDirection()) {
+        if (resource.isLoaded() && direction == pojo.getDirection()) {
             return;
         }
 
-        // store the new direction
-        pojo.setDirection(direction);
-        postLocomotive(new LocomotiveChanger() {
+        change(LocomotiveField.DIRECTION, new PolledResource.Changer<Locomotive>() {
             @Override
-            public void changeLocomotive(Locomotive locomotive) {
+            public void change(Locomotive locomotive) {
                 locomotive.setDirection(direction);
             }
         });
@@ -252,7 +299,7 @@ public class LocomotiveJSONProxy implements Locomotive {
      */
     @Override
     public String getName() {
-        return pojo.getName();
+        return shown().getName();
     }
 
     /**
@@ -260,14 +307,13 @@ public class LocomotiveJSONProxy implements Locomotive {
      */
     @Override
     public void setName(final String name) {
-        if (equalStrings(pojo.getName(), name)) {
+        if (resource.isLoaded() && equalStrings(pojo.getName(), name)) {
             return;
         }
 
-        pojo.setName(name);
-        postLocomotive(new LocomotiveChanger() {
+        change(LocomotiveField.NAME, new PolledResource.Changer<Locomotive>() {
             @Override
-            public void changeLocomotive(Locomotive locomotive) {
+            public void change(Locomotive locomotive) {
                 locomotive.setName(name);
             }
         });
@@ -275,19 +321,18 @@ public class LocomotiveJSONProxy implements Locomotive {
 
     @Override
     public String getNumber() {
-        return pojo.getNumber();
+        return shown().getNumber();
     }
 
     @Override
     public void setNumber(final String number) {
-        if (equalStrings(pojo.getNumber(), number)) {
+        if (resource.isLoaded() && equalStrings(pojo.getNumber(), number)) {
             return;
         }
 
-        pojo.setNumber(number);
-        postLocomotive(new LocomotiveChanger() {
+        change(LocomotiveField.NUMBER, new PolledResource.Changer<Locomotive>() {
             @Override
-            public void changeLocomotive(Locomotive locomotive) {
+            public void change(Locomotive locomotive) {
                 locomotive.setNumber(number);
             }
         });
@@ -295,19 +340,18 @@ public class LocomotiveJSONProxy implements Locomotive {
 
     @Override
     public boolean isHeadLight() {
-        return pojo.isHeadLight();
+        return shown().isHeadLight();
     }
 
     @Override
     public void setHeadLight(final boolean headLight) {
-        if (pojo.isHeadLight() == headLight) {
+        if (resource.isLoaded() && pojo.isHeadLight() == headLight) {
             return;
         }
 
-        pojo.setHeadLight(headLight);
-        postLocomotive(new LocomotiveChanger() {
+        change(LocomotiveField.HEAD_LIGHT, new PolledResource.Changer<Locomotive>() {
             @Override
-            public void changeLocomotive(Locomotive locomotive) {
+            public void change(Locomotive locomotive) {
                 locomotive.setHeadLight(headLight);
             }
         });
@@ -315,19 +359,18 @@ public class LocomotiveJSONProxy implements Locomotive {
 
     @Override
     public boolean isCabineLighting() {
-        return pojo.isCabineLighting();
+        return shown().isCabineLighting();
     }
 
     @Override
     public void setCabineLighting(final boolean cabineLighting) {
-        if (pojo.isCabineLighting() == cabineLighting) {
+        if (resource.isLoaded() && pojo.isCabineLighting() == cabineLighting) {
             return;
         }
 
-        pojo.setCabineLighting(cabineLighting);
-        postLocomotive(new LocomotiveChanger() {
+        change(LocomotiveField.CABINE_LIGHTING, new PolledResource.Changer<Locomotive>() {
             @Override
-            public void changeLocomotive(Locomotive locomotive) {
+            public void change(Locomotive locomotive) {
                 locomotive.setCabineLighting(cabineLighting);
             }
         });
@@ -335,14 +378,13 @@ public class LocomotiveJSONProxy implements Locomotive {
 
     @Override
     public void setHornSound(final boolean hornSound) {
-        if (pojo.isHornSound() == hornSound) {
+        if (resource.isLoaded() && pojo.isHornSound() == hornSound) {
             return;
         }
 
-        pojo.setHornSound(hornSound);
-        postLocomotive(new LocomotiveChanger() {
+        change(LocomotiveField.HORN_SOUND, new PolledResource.Changer<Locomotive>() {
             @Override
-            public void changeLocomotive(Locomotive locomotive) {
+            public void change(Locomotive locomotive) {
                 locomotive.setHornSound(hornSound);
             }
         });
@@ -350,19 +392,18 @@ public class LocomotiveJSONProxy implements Locomotive {
 
     @Override
     public boolean isHornSound() {
-        return pojo.isHornSound();
+        return shown().isHornSound();
     }
 
     @Override
     public void setDrivingSound(final boolean drivingSound) {
-        if (pojo.isDrivingSound() == drivingSound) {
+        if (resource.isLoaded() && pojo.isDrivingSound() == drivingSound) {
             return;
         }
 
-        pojo.setDrivingSound(drivingSound);
-        postLocomotive(new LocomotiveChanger() {
+        change(LocomotiveField.DRIVING_SOUND, new PolledResource.Changer<Locomotive>() {
             @Override
-            public void changeLocomotive(Locomotive locomotive) {
+            public void change(Locomotive locomotive) {
                 locomotive.setDrivingSound(drivingSound);
             }
         });
@@ -370,12 +411,12 @@ public class LocomotiveJSONProxy implements Locomotive {
 
     @Override
     public boolean isDrivingSound() {
-        return pojo.isDrivingSound();
+        return shown().isDrivingSound();
     }
 
     @Override
     public Locomotive getPOJO() {
-        return pojo;
+        return shown();
     }
 
     /**
@@ -2,14 +2,10 @@ package de.ba.railroadclient;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
-import android.util.Log;
 
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.util.ArrayList;
 import java.util.List;
 
@@ -23,39 +19,57 @@ import model.LocomotiveServerDAO;
 @SuppressWarnings("WeakerAccess")
 public class LocomotiveListAdapter extends AbstractJsonArrayAdapter<LocomotiveServer> {
 
+    /**
+     * Reads the first locomotives in the background, may be null
+     */
+    private LocomotivePrefetcher prefetcher;
+
     public LocomotiveListAdapter(@NonNull Context context, String serverURL, RequestQueue requestQueue, Response.ErrorListener errorListener) {
         super(context, serverURL, requestQueue, errorListener);
     }
 
+    public LocomotiveListAdapter(@NonNull Context context, String serverURL, DiscoveryService discoveryService, Response.ErrorListener errorListener) {
+        super(context, serverURL, discoveryService, errorListener);
+    }
+
+    /**
+     * @param prefetcher Will prefetch the first servers of the list, or null
+     */
+    public void setPrefetcher(LocomotivePrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+
+        // the list may already be known, e.g. from the cache
+        prefetch();
+    }
+
     @Override
-    protected void updateListItems(JSONArray response) {
-        List<LocomotiveServer> newItems = new ArrayList<>();
-
-        for (int i = 0; i < response.length(); i++)
-            try {
-                JSONObject object = response.getJSONObject(i);
-                newItems.add(LocomotiveServerDAO.read(object.toString()));
-            } catch (Throwable t) {
-                Log.e("main", "can not create JSON object", t);
-            }
-
-        // remove all older items
-        for (int i = 0; i < getCount(); i++) {
-            LocomotiveServer item = getItem(i);
+    protected LocomotiveServer readItem(String json) {
+        return LocomotiveServerDAO.read(json);
+    }
+
+    @Override
+    protected boolean updateListItems(ServerList response) {
+        boolean changed = super.updateListItems(response);
 
-            if (!newItems.contains(item)) {
-                remove(item);
-            }
+        if (changed) {
+            prefetch();
         }
 
-        // add new items
-        for (int i = 0; i < newItems.size(); i++) {
-            LocomotiveServer item = newItems.get(i);
+        return changed;
+    }
+
+    /**
+     * The first servers are the most likely to be selected, read them in the background
+     */
+    private void prefetch() {
+        if (prefetcher == null) {
+            return;
+        }
 
-            if (getPosition(item) < 0) {
-                add(item);
-            }
+        List<LocomotiveServer> items = new ArrayList<>();
+        for (int i = 0; i < getCount(); i++) {
+            items.add(getItem(i));
         }
+        prefetcher.setServers(items);
     }
-
 }
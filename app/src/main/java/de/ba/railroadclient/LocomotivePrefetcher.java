@@ -0,0 +1,93 @@
+package de.ba.railroadclient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import model.Locomotive;
+import model.LocomotiveServer;
+
+/**
+ * Watches the first servers of the locomotive list in the background, so a locomotive can be
+ * shown at once when the user selects it. The locomotives are polled by a
+ * {@link LocomotiveFleetProxy}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class LocomotivePrefetcher {
+
+    /**
+     * A snapshot older than this is not shown, the locomotive may have moved on
+     */
+    private static final long MAX_SNAPSHOT_AGE = 30000;
+
+    /**
+     * Polls the prefetched locomotives
+     */
+    private LocomotiveFleetProxy fleetProxy;
+
+    /**
+     * Maximum number of prefetched servers
+     */
+    private int count;
+
+    /**
+     * Servers which are prefetched right now
+     */
+    private List<LocomotiveServer> prefetched = new ArrayList<>();
+
+    /**
+     * Knows the locomotives of the last run, may be null
+     */
+    private DiscoveryCache discoveryCache;
+
+    /**
+     * @param fleetProxy Proxy to poll the locomotives, should not be used for other locomotives
+     * @param count      Maximum number of prefetched servers
+     */
+    public LocomotivePrefetcher(LocomotiveFleetProxy fleetProxy, int count) {
+        this.fleetProxy = fleetProxy;
+        this.count = count;
+    }
+
+    /**
+     * Prefetch the first servers of a list, stop to prefetch all others.
+     *
+     * @param servers Servers in the order they are shown
+     */
+    public void setServers(List<LocomotiveServer> servers) {
+        List<LocomotiveServer> top = new ArrayList<>(servers.subList(0, Math.min(count, servers.size())));
+
+        for (LocomotiveServer server : prefetched) {
+            if (!top.contains(server)) {
+                fleetProxy.removeLocomotive(server);
+            }
+        }
+
+        for (LocomotiveServer server : top) {
+            fleetProxy.addLocomotive(server, null);
+        }
+
+        prefetched = top;
+    }
+
+    /**
+     * @param discoveryCache Knows the locomotives of the last run, or null
+     */
+    public void setDiscoveryCache(DiscoveryCache discoveryCache) {
+        this.discoveryCache = discoveryCache;
+    }
+
+    /**
+     * @param server Server of the locomotive
+     * @return Recent state of the locomotive, the state of the last run, or null if it is not
+     * known
+     */
+    public Locomotive getSnapshot(LocomotiveServer server) {
+        Locomotive snapshot = fleetProxy.getSnapshot(server, MAX_SNAPSHOT_AGE);
+
+        if (snapshot == null && discoveryCache != null) {
+            snapshot = discoveryCache.getLocomotive(server.getRestURL());
+        }
+
+        return snapshot;
+    }
+}
@@ -0,0 +1,343 @@
+package de.ba.railroadclient;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Printer;
+import android.view.Choreographer;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures how long the messages of the main looper take and how long the display frames are
+ * apart. A message is attributed to a {@link Source}: the code which handles server responses,
+ * list updates and UI callbacks marks its message with {@link #mark(Source)}, unmarked
+ * messages of the {@link Choreographer} count as {@link Source#FRAME}. Messages longer than
+ * {@link #STALL_MILLIS} are logged as stalls, late frames are counted against the source of
+ * the slowest message since the frame before.
+ * <p>
+ * The monitor is opt-in, it costs a string per message while it is running. Only one monitor
+ * runs at a time and it replaces the message logging of the main looper. The frames are taken
+ * from the {@link Choreographer}, so they are only measured on Android 4.1 and newer.
+ * <p>
+ * The monitor is started and stopped on the main thread, the results can be read on any
+ * thread, {@link #getSummary()} can be written to a file with a {@link BackgroundFileWriter}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class MainThreadMonitor {
+
+    /**
+     * A message which takes longer is a stall, the user notices it
+     */
+    public static final long STALL_MILLIS = 100;
+
+    /**
+     * Frames further apart are late, at 60 Hz at least one frame was dropped
+     */
+    public static final long LATE_FRAME_MILLIS = 25;
+
+    /**
+     * What a message of the main looper has done
+     */
+    public enum Source {
+
+        /**
+         * A polled or pushed state of a locomotive or switch group is applied
+         */
+        POLL_RESPONSE,
+
+        /**
+         * A server list is applied to the adapters
+         */
+        LIST_UPDATE,
+
+        /**
+         * The views are updated with a changed locomotive
+         */
+        UI_CALLBACK,
+
+        /**
+         * The tick of the timer of the control screen
+         */
+        TIMER,
+
+        /**
+         * Layout, drawing and other frame callbacks
+         */
+        FRAME,
+
+        /**
+         * Everything else, e.g. input events
+         */
+        OTHER
+    }
+
+    /**
+     * The running monitor, null if none is running
+     */
+    private static volatile MainThreadMonitor running;
+
+    /**
+     * Durations of the messages by their source
+     */
+    private final Map<Source, LatencyHistogram> messages = new EnumMap<>(Source.class);
+
+    /**
+     * Number of stalls by their source
+     */
+    private final Map<Source, Long> stalls = new EnumMap<>(Source.class);
+
+    /**
+     * Number of late frames by the source of the slowest message before them
+     */
+    private final Map<Source, Long> lateFrames = new EnumMap<>(Source.class);
+
+    /**
+     * Time between two frames
+     */
+    private final LatencyHistogram frames = new LatencyHistogram();
+
+    /**
+     * Measures the frames, null before Android 4.1
+     */
+    private FrameMonitor frameMonitor;
+
+    /**
+     * The message which is running now, only used on the main thread
+     */
+    private String dispatch;
+
+    private long dispatchTime;
+
+    private Source markedSource;
+
+    /**
+     * The slowest message since the last frame, only used on the main thread
+     */
+    private Source slowestSource = Source.OTHER;
+
+    private long slowestMillis = -1;
+
+    public MainThreadMonitor() {
+        for (Source source : Source.values()) {
+            messages.put(source, new LatencyHistogram());
+            stalls.put(source, 0L);
+            lateFrames.put(source, 0L);
+        }
+    }
+
+    /**
+     * Attribute the current message of the main looper to a source. The first mark of a
+     * message counts. Without a running monitor the call costs nearly nothing.
+     *
+     * @param source What the current message does
+     */
+    public static void mark(Source source) {
+        MainThreadMonitor monitor = running;
+
+        if (monitor != null && monitor.markedSource == null && Looper.myLooper() == Looper.getMainLooper()) {
+            monitor.markedSource = source;
+        }
+    }
+
+    /**
+     * Start to measure, a running monitor is stopped.
+     */
+    public void start() {
+        MainThreadMonitor other = running;
+        if (other != null) {
+            other.stop();
+        }
+
+        running = this;
+        dispatch = null;
+        Looper.getMainLooper().setMessageLogging(printer);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            frameMonitor = new FrameMonitor(this);
+            frameMonitor.start();
+        }
+    }
+
+    /**
+     * Stop to measure, the results are kept
+     */
+    public void stop() {
+        if (running != this) {
+            return;
+        }
+
+        running = null;
+        Looper.getMainLooper().setMessageLogging(null);
+
+        if (frameMonitor != null) {
+            frameMonitor.stop();
+            frameMonitor = null;
+        }
+    }
+
+    /**
+     * The looper prints a line before and after each message
+     */
+    private Printer printer = new Printer() {
+
+        @Override
+        public void println(String line) {
+            if (line.startsWith(">")) {
+                dispatch = line;
+                dispatchTime = SystemClock.uptimeMillis();
+                markedSource = null;
+            } else if (line.startsWith("<") && dispatch != null) {
+                finished(SystemClock.uptimeMillis() - dispatchTime);
+                dispatch = null;
+            }
+        }
+    };
+
+    /**
+     * Record the message which has just finished
+     */
+    private void finished(long millis) {
+        Source source = markedSource;
+        if (source == null) {
+            source = dispatch.contains("Choreographer") ? Source.FRAME : Source.OTHER;
+        }
+
+        if (millis > slowestMillis) {
+            slowestMillis = millis;
+            slowestSource = source;
+        }
+
+        messages.get(source).record(millis);
+
+        if (millis >= STALL_MILLIS) {
+            synchronized (this) {
+                stalls.put(source, stalls.get(source) + 1);
+            }
+            Log.w("main", "main thread stalled for " + millis + " ms by " + source + ": " + dispatch);
+        }
+    }
+
+    /**
+     * A frame has started
+     *
+     * @param millis Time since the frame before, or -1 for the first frame
+     */
+    private void frame(long millis) {
+        if (millis >= 0) {
+            frames.record(millis);
+
+            // the slowest message since the last frame is the most likely reason
+            if (millis >= LATE_FRAME_MILLIS) {
+                synchronized (this) {
+                    lateFrames.put(slowestSource, lateFrames.get(slowestSource) + 1);
+                }
+            }
+        }
+
+        slowestSource = Source.OTHER;
+        slowestMillis = -1;
+    }
+
+    /**
+     * @param source Source of the messages
+     * @return Durations of the messages of this source
+     */
+    public LatencyHistogram getMessages(Source source) {
+        return messages.get(source);
+    }
+
+    /**
+     * @return Time between two frames, empty before Android 4.1
+     */
+    public LatencyHistogram getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return One tab separated line per source with the number of messages, their p50, p95,
+     * p99 and max, the number of stalls and late frames, and a last line for the frames
+     */
+    public synchronized String getSummary() {
+        StringBuilder summary = new StringBuilder("source\tcount\tp50\tp95\tp99\tmax\tstalls\tlateFrames\n");
+
+        for (Source source : Source.values()) {
+            LatencyHistogram histogram = messages.get(source);
+            summary.append(String.format(Locale.US, "%s\t%d\t%d\t%d\t%d\t%d\t%d\t%d\n",
+                    source, histogram.getCount(),
+                    histogram.getPercentile(50), histogram.getPercentile(95),
+                    histogram.getPercentile(99), histogram.getMax(),
+                    stalls.get(source), lateFrames.get(source)));
+        }
+
+        long late = 0;
+        for (long count : lateFrames.values()) {
+            late += count;
+        }
+        summary.append(String.format(Locale.US, "frames\t%d\t%d\t%d\t%d\t%d\t\t%d\n",
+                frames.getCount(), frames.getPercentile(50), frames.getPercentile(95),
+                frames.getPercentile(99), frames.getMax(), late));
+
+        return summary.toString();
+    }
+
+    /**
+     * Remove all results
+     */
+    public synchronized void clear() {
+        for (Source source : Source.values()) {
+            messages.get(source).clear();
+            stalls.put(source, 0L);
+            lateFrames.put(source, 0L);
+        }
+        frames.clear();
+    }
+
+    /**
+     * Wraps the Choreographer, so this class is only loaded on Android 4.1 and newer
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameMonitor implements Choreographer.FrameCallback {
+
+        private final MainThreadMonitor monitor;
+
+        /**
+         * Time of the last frame in nanoseconds, 0 before the first frame
+         */
+        private long lastFrameNanos = 0;
+
+        private boolean running = false;
+
+        FrameMonitor(MainThreadMonitor monitor) {
+            this.monitor = monitor;
+        }
+
+        void start() {
+            running = true;
+            lastFrameNanos = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            running = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!running) {
+                return;
+            }
+
+            monitor.frame(lastFrameNanos == 0 ? -1 : (frameTimeNanos - lastFrameNanos) / 1000000);
+            lastFrameNanos = frameTimeNanos;
+
+            // every frame is measured, so the next one is requested at once
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
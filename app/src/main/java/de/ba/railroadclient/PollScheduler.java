@@ -0,0 +1,145 @@
+package de.ba.railroadclient;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Central timer for all periodic server requests. Each {@link PollTask} decides itself when it
+ * wants to run next, e.g. fast while a locomotive is moving and slow while nothing happens.
+ * The scheduler keeps only a single pending message in its handler, no matter how many tasks
+ * are registered.
+ */
+@SuppressWarnings("WeakerAccess")
+public class PollScheduler {
+
+    /**
+     * A periodic task. The task must call {@link #schedule(PollTask, long)} again if it wants to
+     * run another time.
+     */
+    public interface PollTask {
+
+        void poll();
+
+    }
+
+    /**
+     * Scheduler running on the main looper, shared by all proxies and adapters
+     */
+    private static PollScheduler mainScheduler;
+
+    /**
+     * Handler of the thread which runs the tasks
+     */
+    private Handler handler;
+
+    /**
+     * Point in time ({@link SystemClock#uptimeMillis()}) when a task has to run
+     */
+    private Map<PollTask, Long> dueTimes = new LinkedHashMap<>();
+
+    /**
+     * Point in time of the pending handler message, or {@link Long#MAX_VALUE} if there is none
+     */
+    private long armedTime = Long.MAX_VALUE;
+
+    /**
+     * @param looper Looper of the thread which runs the tasks
+     */
+    public PollScheduler(Looper looper) {
+        this.handler = new Handler(looper);
+    }
+
+    /**
+     * @return Scheduler which runs its tasks on the main thread
+     */
+    public static synchronized PollScheduler getMainScheduler() {
+        if (mainScheduler == null) {
+            mainScheduler = new PollScheduler(Looper.getMainLooper());
+        }
+
+        return mainScheduler;
+    }
+
+    /**
+     * Run a task once after the given delay. If the task is already scheduled, the old point in
+     * time will be replaced.
+     *
+     * @param task  Task to run
+     * @param delay Delay in milliseconds
+     */
+    public void schedule(PollTask task, long delay) {
+        dueTimes.put(task, SystemClock.uptimeMillis() + Math.max(0, delay));
+        arm();
+    }
+
+    /**
+     * @param task Task which should not run anymore
+     */
+    public void cancel(PollTask task) {
+        if (dueTimes.remove(task) != null) {
+            arm();
+        }
+    }
+
+    /**
+     * @param task Task to check
+     * @return true if the task will run in the future
+     */
+    public boolean isScheduled(PollTask task) {
+        return dueTimes.containsKey(task);
+    }
+
+    /**
+     * Make sure the handler wakes us up when the next task is due
+     */
+    private void arm() {
+        long next = Long.MAX_VALUE;
+        for (long dueTime : dueTimes.values()) {
+            next = Math.min(next, dueTime);
+        }
+
+        if (next == armedTime) {
+            return;
+        }
+
+        handler.removeCallbacks(tick);
+        armedTime = next;
+
+        if (next != Long.MAX_VALUE) {
+            handler.postAtTime(tick, next);
+        }
+    }
+
+    /**
+     * Runs all due tasks
+     */
+    private Runnable tick = new Runnable() {
+
+        @Override
+        public void run() {
+            armedTime = Long.MAX_VALUE;
+
+            // collect the due tasks first, they will reschedule themselves
+            long now = SystemClock.uptimeMillis();
+            List<PollTask> dueTasks = new ArrayList<>();
+            for (Map.Entry<PollTask, Long> entry : dueTimes.entrySet()) {
+                if (entry.getValue() <= now) {
+                    dueTasks.add(entry.getKey());
+                }
+            }
+
+            for (PollTask task : dueTasks) {
+                dueTimes.remove(task);
+                task.poll();
+            }
+
+            arm();
+        }
+    };
+}
@@ -0,0 +1,539 @@
+package de.ba.railroadclient;
+
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A JSON resource on a server, e.g. a locomotive or a switch group, mirrored in a local object.
+ * The resource is read repeatedly with conditional GET requests and the listener is informed
+ * about each new state. Local changes are written with the {@link JsonPatchPipeline}, the
+ * changed fields are computed with the {@link ResourceCodec}.
+ * <p>
+ * All resources are polled by the shared {@link PollScheduler}, so the number of resources
+ * doesn't change the number of timers. If push is enabled and the server pushes its changes
+ * (see {@link PushSubscription}), polling is stopped until the push connection breaks.
+ * <p>
+ * The resource is used on the main thread only.
+ *
+ * @param <T> Type of the local object
+ */
+@SuppressWarnings("WeakerAccess")
+public class PolledResource<T> {
+
+    /**
+     * Will be informed about each new state of the resource
+     */
+    public interface ResourceListener<T> {
+
+        /**
+         * @param resource The local object with the new state
+         */
+        void resourceChanged(T resource);
+
+    }
+
+    /**
+     * The interface defines a method to change the resource. An instance can be used
+     * as a parameter for {@link #change(Changer)}.
+     */
+    public interface Changer<T> {
+
+        /**
+         * @param resource Object to change
+         */
+        void change(T resource);
+
+    }
+
+    /**
+     * HTTP request que. This queue can be shared with other tasks.
+     */
+    private RequestQueue requestQueue;
+
+    /**
+     * Will receive the error messages
+     */
+    private Response.ErrorListener errorListener;
+
+    /**
+     * Converts the resource from and to JSON
+     */
+    private ResourceCodec<T> codec;
+
+    /**
+     * Local state of the resource
+     */
+    private T state;
+
+    /**
+     * Pushed and rebased states are read into this object first, so a broken state doesn't
+     * change {@link #state}. Only used on the main thread.
+     */
+    private T scratch;
+
+    /**
+     * Will be informed, if we receive a new state from the server
+     */
+    private ResourceListener<T> resourceListener;
+
+    /**
+     * URL of the resource, null without a server
+     */
+    private String url;
+
+    /**
+     * the scheduler is responsible for calling the update task
+     */
+    private PollScheduler pollScheduler;
+
+    /**
+     * Delay between two updates, short while the resource is active
+     */
+    private AdaptivePollInterval pollInterval = new AdaptivePollInterval(500, 2000, 20000);
+
+    /**
+     * true while a GET is sent and not answered
+     */
+    private boolean polling = false;
+
+    /**
+     * Tag of the GET requests, used to cancel them if the URL changes
+     */
+    private final Object pollTag = new Object();
+
+    /**
+     * Will be increased with every URL change. Responses of an older generation are dropped.
+     */
+    private int generation = 0;
+
+    /**
+     * true if the server may push its changes
+     */
+    private boolean pushEnabled = false;
+
+    /**
+     * Receives changes from servers which support push, null without a server
+     */
+    private PushSubscription pushSubscription;
+
+    /**
+     * true if a state of the server was applied since the URL was set
+     */
+    private boolean loaded = false;
+
+    /**
+     * true if a pushed state could not be applied and must be read again
+     */
+    private boolean missedPush = false;
+
+    /**
+     * Collects the local changes and writes them to the server
+     */
+    private JsonPatchPipeline commandPipeline;
+
+    /**
+     * Version of the last state received from the server
+     */
+    private ResourceVersion version = new ResourceVersion();
+
+    /**
+     * @param requestQueue     A request dispatch queue with a thread pool of dispatchers
+     * @param errorListener    Callback interface for delivering error responses
+     * @param codec            Converts the resource from and to JSON
+     * @param state            Local object of the resource, it is changed by each update
+     * @param resourceListener Will be informed about each new state, may be null
+     */
+    public PolledResource(RequestQueue requestQueue, Response.ErrorListener errorListener, ResourceCodec<T> codec, T state, ResourceListener<T> resourceListener) {
+        this.requestQueue = requestQueue;
+        this.errorListener = errorListener;
+        this.codec = codec;
+        this.state = state;
+        this.scratch = codec.create();
+        this.resourceListener = resourceListener;
+        this.commandPipeline = new JsonPatchPipeline(requestQueue, errorListener);
+        this.commandPipeline.setVersion(version, rebaseListener);
+
+        // the resource will be updated as soon as we have a URL
+        this.pollScheduler = PollScheduler.getMainScheduler();
+    }
+
+    /**
+     * Must be called before the URL is set.
+     *
+     * @param pushEnabled true if the server may push its changes
+     */
+    public void setPushEnabled(boolean pushEnabled) {
+        this.pushEnabled = pushEnabled;
+    }
+
+    /**
+     * Change the resource. All requests for the old resource are dropped and the new one is
+     * read immediately.
+     *
+     * @param url URL of the resource, or null to stop polling
+     */
+    public void setURL(String url) {
+        boolean changed = url == null ? this.url != null : !url.equals(this.url);
+        this.url = url;
+
+        // the state of the old resource must not be the base of the changes of the new one
+        if (changed) {
+            codec.copy(codec.create(), state);
+            loaded = false;
+        }
+
+        // drop all requests for the old resource, their responses must not be applied
+        generation++;
+        requestQueue.cancelAll(pollTag);
+        polling = false;
+
+        // the journal keeps the version of the old resource for its replay
+        if (changed) {
+            commandPipeline.setURL(null);
+        }
+        version = new ResourceVersion();
+        commandPipeline.setVersion(version, rebaseListener);
+        commandPipeline.setURL(url);
+
+        // subscribe to the changes of the new resource, polling is used until the push is connected
+        if (pushSubscription != null) {
+            pushSubscription.close();
+            pushSubscription = null;
+        }
+        if (pushEnabled && url != null) {
+            pushSubscription = new PushSubscription(url, pushListener);
+        }
+        missedPush = false;
+
+        // read the new resource immediately, or stop polling without a URL
+        pollInterval.reset();
+        if (url == null) {
+            pollScheduler.cancel(updateTask);
+        } else {
+            pollScheduler.schedule(updateTask, 0);
+        }
+    }
+
+    /**
+     * @return URL of the resource, or null
+     */
+    public String getURL() {
+        return url;
+    }
+
+    /**
+     * @return Local object of the resource
+     */
+    public T getState() {
+        return state;
+    }
+
+    /**
+     * @return true if a state of the server was applied since the URL was set. Before, the
+     * local object only holds our changes on top of empty fields.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Changes which could not be sent, because the server was unreachable, are stored in the
+     * journal and sent again as soon as the server answers.
+     *
+     * @param journal Journal shared by all proxies, or null
+     */
+    public void setCommandJournal(CommandJournal journal) {
+        commandPipeline.setCommandJournal(journal);
+    }
+
+    /**
+     * Override to poll faster while the resource is expected to change, e.g. while a
+     * locomotive is moving.
+     *
+     * @param resource Local object of the resource
+     * @return true if the resource is expected to change soon
+     */
+    protected boolean isActive(T resource) {
+        return false;
+    }
+
+    /**
+     * Plan the next update. The delay depends on the state of the resource and the results
+     * of the last updates.
+     */
+    private void scheduleUpdate() {
+        // no need to poll, if the server pushes its changes
+        boolean pushed = pushSubscription != null && pushSubscription.isConnected() && !missedPush;
+
+        if (url == null || pushed) {
+            pollScheduler.cancel(updateTask);
+            return;
+        }
+
+        // changes which are not yet written are checked soon
+        pollScheduler.schedule(updateTask, pollInterval.next(isActive(state) || !commandPipeline.isIdle()));
+    }
+
+    /**
+     * The Updater will periodically read the current state of the resource
+     */
+    private PollScheduler.PollTask updateTask = new PollScheduler.PollTask() {
+
+        @Override
+        public void poll() {
+            // do we have a server?
+            if (url == null) {
+                return;
+            }
+
+            // changes submitted after this revision are newer than the response
+            final long revision = commandPipeline.getRevision();
+            final int pollGeneration = generation;
+
+            // connect to this server, the response is only delivered if the resource has changed
+            DecodedGetRequest<T> getRequest = new DecodedGetRequest<>(url, version, decoder, new Response.Listener<T>() {
+                @Override
+                public void onResponse(T response) {
+                    MainThreadMonitor.mark(MainThreadMonitor.Source.POLL_RESPONSE);
+
+                    if (pollGeneration != generation) {
+                        return;
+                    }
+
+                    // the next update is planned after each response
+                    polling = false;
+                    pollInterval.changed();
+                    scheduleUpdate();
+
+                    // the server is reachable again, send the journal
+                    commandPipeline.resume();
+
+                    if (update(response, null, revision)) {
+                        missedPush = false;
+                    } else {
+                        // read the resource again with the next update
+                        version.forgetContent();
+                    }
+                }
+            }, new Response.ErrorListener() {
+                @Override
+                public void onErrorResponse(VolleyError error) {
+                    if (pollGeneration != generation) {
+                        return;
+                    }
+
+                    // try again later
+                    polling = false;
+                    pollInterval.failed();
+                    scheduleUpdate();
+
+                    if (errorListener != null) {
+                        errorListener.onErrorResponse(error);
+                    }
+                }
+            });
+            getRequest.setUnchangedListener(new DecodedGetRequest.UnchangedListener() {
+                @Override
+                public void onUnchanged() {
+                    MainThreadMonitor.mark(MainThreadMonitor.Source.POLL_RESPONSE);
+
+                    if (pollGeneration != generation) {
+                        return;
+                    }
+
+                    polling = false;
+                    pollInterval.unchanged();
+                    scheduleUpdate();
+
+                    commandPipeline.resume();
+                }
+            });
+
+            // add the GET action to the request que
+            getRequest.setTag(pollTag);
+            polling = true;
+            requestQueue.add(getRequest);
+        }
+    };
+
+    /**
+     * Decodes the polled states on the network thread into objects of their own
+     */
+    private DecodedGetRequest.Decoder<T> decoder = new DecodedGetRequest.Decoder<T>() {
+
+        @Override
+        public T decode(byte[] body) {
+            T decoded = codec.create();
+            return codec.read(body, decoded) ? decoded : null;
+        }
+    };
+
+    /**
+     * Receives the states pushed by the server. While the push is connected, polling is
+     * stopped.
+     */
+    private PushSubscription.PushListener pushListener = new PushSubscription.PushListener() {
+
+        @Override
+        public void pushConnected() {
+            scheduleUpdate();
+        }
+
+        @Override
+        public void pushReceived(String json) {
+            MainThreadMonitor.mark(MainThreadMonitor.Source.POLL_RESPONSE);
+
+            commandPipeline.resume();
+
+            if (!update(null, json, commandPipeline.getRevision())) {
+                // poll until the changes are written and the resource could be read again
+                missedPush = true;
+                version.forgetContent();
+                if (!polling) {
+                    scheduleUpdate();
+                }
+            }
+        }
+
+        @Override
+        public void pushDisconnected() {
+            // changes may be lost with the stream, fall back to polling with a full read
+            version.forgetContent();
+            if (!polling) {
+                pollScheduler.schedule(updateTask, 0);
+            }
+        }
+    };
+
+    /**
+     * Applies our rejected changes on top of a state which was changed by another client
+     */
+    private JsonPatchPipeline.RebaseListener rebaseListener = new JsonPatchPipeline.RebaseListener() {
+
+        @Override
+        public void rebased(byte[] serverState, JSONObject pending) {
+            codec.copy(state, scratch);
+            if (!codec.read(serverState, scratch) || !codec.read(pending.toString(), scratch)) {
+                return;
+            }
+            codec.copy(scratch, state);
+            loaded = true;
+
+            notifyListener();
+        }
+    };
+
+    /**
+     * Apply a state received from the server to the local object and inform the listener. The
+     * state is either given as decoded object or as pushed string.
+     *
+     * @param decoded  State decoded on the network thread, or null
+     * @param json     State as JSON string, or null
+     * @param revision Revision of the {@link JsonPatchPipeline} when the state was requested
+     * @return false if the state was not applied, because local changes are not yet
+     * written to the server or the JSON is invalid
+     */
+    private boolean update(T decoded, String json, long revision) {
+        // don't overwrite changes which are not written to the server yet
+        if (!commandPipeline.isIdle() || commandPipeline.getRevision() != revision) {
+            return false;
+        }
+
+        // the polled state is already decoded, a pushed state is read into the scratch object,
+        // so a broken one doesn't leave the state half changed
+        if (decoded == null) {
+            codec.copy(state, scratch);
+            if (!codec.read(json, scratch)) {
+                return false;
+            }
+            decoded = scratch;
+        }
+        codec.copy(decoded, state);
+        loaded = true;
+
+        // measure how long it took until our last command is visible
+        if (commandPipeline.isObserving()) {
+            commandPipeline.observe(codec.toJSON(state));
+        }
+
+        notifyListener();
+
+        return true;
+    }
+
+    private void notifyListener() {
+        if (resourceListener != null) {
+            resourceListener.resourceChanged(state);
+        }
+    }
+
+    /**
+     * (1) Change the local object, using the {@link Changer}
+     * (2) Compute the changed fields
+     * (3) Send the changed fields to the server. Changes are combined by the
+     * {@link JsonPatchPipeline}, so a burst of changes costs a single PATCH.
+     * <p>
+     * Until the first state of the server is applied, the local object is no base to compare
+     * with, so the field is sent even if it had this value already.
+     *
+     * @param key     JSON key of the field which is changed
+     * @param changer Changes the local object
+     */
+    public void change(String key, Changer<T> changer) {
+        JSONObject before = codec.toJSON(state);
+        changer.change(state);
+        JSONObject after = codec.toJSON(state);
+
+        if (loaded) {
+            // send only the changed fields
+            submit(JsonDelta.diff(before, after), null);
+            return;
+        }
+
+        JSONObject delta = new JSONObject();
+        try {
+            delta.put(key, after.opt(key));
+        } catch (JSONException e) {
+            Log.e("main", "can not send " + key, e);
+            return;
+        }
+        submit(delta, null);
+    }
+
+    /**
+     * Send fields which are already applied to the local object.
+     *
+     * @param delta          Fields to send
+     * @param commitListener Is informed whether the fields are written, may be null
+     */
+    public void submit(JSONObject delta, JsonPatchPipeline.CommitListener commitListener) {
+        commandPipeline.submit(delta, commitListener);
+        checkSoon();
+    }
+
+    /**
+     * Send fields at once, ahead of all other requests in the queue, see
+     * {@link JsonPatchPipeline#submitImmediately(JSONObject)}.
+     *
+     * @param delta Fields which are already applied to the local object
+     */
+    public void submitImmediately(JSONObject delta) {
+        commandPipeline.submitImmediately(delta);
+        checkSoon();
+    }
+
+    /**
+     * Check the result of a change soon
+     */
+    private void checkSoon() {
+        if (!polling) {
+            scheduleUpdate();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package de.ba.railroadclient;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executor;
+
+/**
+ * Subscription to state changes of a server resource. The subscription opens the REST URL of
+ * the resource with <code>Accept: text/event-stream</code>. If the server supports
+ * Server-Sent Events, every event without a name carries the new state as a JSON string. Named
+ * events are ignored, their data is no state of the resource. If the server doesn't support
+ * push, or the connection breaks, the subscription tries again later with an exponential back
+ * off. Callers should fall back to polling while {@link #isConnected()} returns false.
+ * <p>
+ * The connection runs in its own thread, all listener methods are called on the main thread.
+ */
+@SuppressWarnings("WeakerAccess")
+public class PushSubscription {
+
+    /**
+     * Will be informed about the state of the subscription
+     */
+    public interface PushListener {
+
+        /**
+         * The server supports push and the stream is open
+         */
+        void pushConnected();
+
+        /**
+         * @param json New state of the resource
+         */
+        void pushReceived(String json);
+
+        /**
+         * An open stream is closed. Not called if the server doesn't support push at all.
+         */
+        void pushDisconnected();
+
+    }
+
+    /**
+     * The server sends keep alive comments, so a silent connection is dead
+     */
+    private static final int READ_TIMEOUT = 60000;
+
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private static final long MIN_RETRY_DELAY = 1000;
+
+    private static final long MAX_RETRY_DELAY = 300000;
+
+    /**
+     * Name of the events without an <code>event</code> field, they carry the state
+     */
+    private static final String STATE_EVENT = "message";
+
+    /**
+     * URL of the resource
+     */
+    private String url;
+
+    /**
+     * Will receive the events on the main thread
+     */
+    private PushListener pushListener;
+
+    /**
+     * Delay before the first retry, doubled with every failed attempt
+     */
+    private long minRetryDelay;
+
+    /**
+     * Calls the listener, on the main thread unless a test replaces it
+     */
+    private Executor delivery;
+
+    /**
+     * Thread which reads the event stream
+     */
+    private Thread thread;
+
+    /**
+     * Current connection, used to abort a blocking read
+     */
+    private volatile HttpURLConnection connection;
+
+    /**
+     * Set by {@link #close()}
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * true while the stream is open, written by the delivered runnables
+     */
+    private volatile boolean connected = false;
+
+    /**
+     * Create a subscription and start to connect.
+     *
+     * @param url          REST URL of the resource
+     * @param pushListener Will be informed about the state of the subscription
+     */
+    public PushSubscription(String url, PushListener pushListener) {
+        this(url, pushListener, new Executor() {
+            private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void execute(Runnable runnable) {
+                mainHandler.post(runnable);
+            }
+        }, MIN_RETRY_DELAY);
+    }
+
+    /**
+     * @param url           REST URL of the resource
+     * @param pushListener  Will be informed about the state of the subscription
+     * @param delivery      Calls the listener
+     * @param minRetryDelay Delay before the first retry in milliseconds
+     */
+    PushSubscription(String url, PushListener pushListener, Executor delivery, long minRetryDelay) {
+        this.url = url;
+        this.pushListener = pushListener;
+        this.delivery = delivery;
+        this.minRetryDelay = minRetryDelay;
+
+        thread = new Thread(subscriber, "push " + url);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return true if the server pushes its changes
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Stop the subscription. The listener will not be called anymore.
+     */
+    public void close() {
+        closed = true;
+        connected = false;
+        thread.interrupt();
+
+        HttpURLConnection c = connection;
+        if (c != null) {
+            c.disconnect();
+        }
+    }
+
+    /**
+     * Connect, read events until the stream ends and try again after a delay.
+     */
+    private Runnable subscriber = new Runnable() {
+
+        @Override
+        public void run() {
+            long retryDelay = minRetryDelay;
+
+            while (!closed && !Thread.currentThread().isInterrupted()) {
+                if (subscribe()) {
+                    retryDelay = minRetryDelay;
+
+                    // only a stream which was open can be lost, a server without push
+                    // support is polled all the time anyway
+                    deliver(new Runnable() {
+                        @Override
+                        public void run() {
+                            connected = false;
+                            pushListener.pushDisconnected();
+                        }
+                    });
+                } else {
+                    retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+                }
+
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    };
+
+    /**
+     * Open the stream and read all events.
+     *
+     * @return true if the stream was open and {@link PushListener#pushConnected()} was called
+     */
+    private boolean subscribe() {
+        boolean supported = false;
+
+        try {
+            HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+            c.setRequestProperty("Accept", "text/event-stream");
+            c.setConnectTimeout(CONNECT_TIMEOUT);
+            c.setReadTimeout(READ_TIMEOUT);
+            connection = c;
+
+            try {
+                // close() may have missed the connection, it was not visible yet
+                if (closed) {
+                    return false;
+                }
+
+                // a server without push support will answer with JSON or an error
+                String contentType = c.getContentType();
+                if (c.getResponseCode() != HttpURLConnection.HTTP_OK || contentType == null || !contentType.startsWith("text/event-stream")) {
+                    return false;
+                }
+
+                supported = true;
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        connected = true;
+                        pushListener.pushConnected();
+                    }
+                });
+
+                BufferedReader reader = new BufferedReader(new InputStreamReader(c.getInputStream(), "UTF-8"));
+                new ServerSentEventReader(reader).read(new ServerSentEventReader.EventHandler() {
+                    @Override
+                    public void onEvent(String event, final String data) {
+                        if (!STATE_EVENT.equals(event)) {
+                            Log.d("main", "ignored push event " + event + ": " + url);
+                            return;
+                        }
+
+                        deliver(new Runnable() {
+                            @Override
+                            public void run() {
+                                pushListener.pushReceived(data);
+                            }
+                        });
+                    }
+                });
+            } finally {
+                c.disconnect();
+                connection = null;
+            }
+        } catch (IOException e) {
+            Log.d("main", "push subscription closed: " + url, e);
+        }
+
+        return supported;
+    }
+
+    /**
+     * Call the listener on the main thread, unless the subscription was closed meanwhile
+     */
+    private void deliver(final Runnable runnable) {
+        delivery.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!closed) {
+                    runnable.run();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,73 @@
+package de.ba.railroadclient;
+
+import android.content.Context;
+
+import com.android.volley.Network;
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.DiskBasedCache;
+import com.android.volley.toolbox.HttpStack;
+import com.android.volley.toolbox.HurlStack;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+
+/**
+ * Creates the shared {@link RequestQueue} with a {@link DiskBasedCache}. In contrast to
+ * {@link com.android.volley.toolbox.Volley} the number of dispatcher threads and the HTTP stack
+ * can be configured. By default a {@link HurlStack} is used. The factory doesn't configure
+ * connection reuse, whatever {@link HttpURLConnection} does by itself applies. A stack with a
+ * pool of its own, e.g. one with HTTP/2 support, can be plugged in.
+ */
+@SuppressWarnings("WeakerAccess")
+public class RequestQueueFactory {
+
+    /**
+     * Same directory as used by {@link com.android.volley.toolbox.Volley}
+     */
+    private static final String CACHE_DIRECTORY = "volley";
+
+    /**
+     * Number of network dispatcher threads
+     */
+    private int threadPoolSize = 4;
+
+    /**
+     * HTTP stack to use, null for the default stack
+     */
+    private HttpStack httpStack;
+
+    /**
+     * @param threadPoolSize Number of network dispatcher threads
+     * @return this factory
+     */
+    public RequestQueueFactory setThreadPoolSize(int threadPoolSize) {
+        this.threadPoolSize = threadPoolSize;
+        return this;
+    }
+
+    /**
+     * @param httpStack HTTP stack to use, null for a {@link HurlStack}
+     * @return this factory
+     */
+    public RequestQueueFactory setHttpStack(HttpStack httpStack) {
+        this.httpStack = httpStack;
+        return this;
+    }
+
+    /**
+     * Create and start a request queue.
+     *
+     * @param context Used to find the cache directory
+     * @return A started request queue
+     */
+    public RequestQueue create(Context context) {
+        Network network = new BasicNetwork(httpStack == null ? new HurlStack() : httpStack);
+        File cacheDirectory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+
+        RequestQueue requestQueue = new RequestQueue(new DiskBasedCache(cacheDirectory), network, threadPoolSize);
+        requestQueue.start();
+
+        return requestQueue;
+    }
+}
@@ -0,0 +1,46 @@
+package de.ba.railroadclient;
+
+import org.json.JSONObject;
+
+/**
+ * Converts a resource of a {@link PolledResource} between JSON and its local object. A new
+ * resource type only needs a codec to be polled and changed like locomotives and switches.
+ * <p>
+ * The read methods may be called on a network thread with a target of its own.
+ *
+ * @param <T> Type of the local object
+ */
+public interface ResourceCodec<T> {
+
+    /**
+     * @param json   Resource as UTF-8 encoded JSON, e.g. the body of a HTTP response
+     * @param target Object to change, missing fields are not changed
+     * @return true if the resource could be read
+     */
+    boolean read(byte[] json, T target);
+
+    /**
+     * @param json   Resource or some of its fields as JSON string
+     * @param target Object to change, missing fields are not changed
+     * @return true if the resource could be read
+     */
+    boolean read(String json, T target);
+
+    /**
+     * @return A new object, e.g. to decode a response on the network thread
+     */
+    T create();
+
+    /**
+     * @param source Object to copy, e.g. a decoded response
+     * @param target Object to change
+     */
+    void copy(T source, T target);
+
+    /**
+     * @param resource Object to convert
+     * @return All fields of the resource, used to compute the changed fields
+     */
+    JSONObject toJSON(T resource);
+
+}
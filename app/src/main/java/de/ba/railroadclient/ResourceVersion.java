@@ -0,0 +1,139 @@
+package de.ba.railroadclient;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Version of a JSON resource as seen by the last GET. The server may send an ETag or a
+ * Last-Modified header, which are used for conditional requests. If the server doesn't send
+ * any of them, a hash of the content is used to find out if the resource has changed.
+ * <p>
+ * The same version is used for optimistic concurrency: a PATCH is only accepted by the server,
+ * if the resource still has the version the client has seen.
+ * <p>
+ * The version is written by the network threads of Volley, so all methods are synchronized.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ResourceVersion {
+
+    /**
+     * Value of the last ETag header, or null
+     */
+    private String eTag;
+
+    /**
+     * Value of the last Last-Modified header, or null
+     */
+    private String lastModified;
+
+    /**
+     * CRC32 of the last content, or -1 if unknown
+     */
+    private long contentHash = -1;
+
+    /**
+     * @return Headers for a conditional GET, empty if the version or the content is unknown
+     */
+    public synchronized Map<String, String> getConditionalHeaders() {
+        Map<String, String> headers = new HashMap<>();
+
+        // the content must be delivered again
+        if (contentHash == -1) {
+            return headers;
+        }
+
+        if (eTag != null) {
+            headers.put("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            headers.put("If-Modified-Since", lastModified);
+        }
+
+        return headers;
+    }
+
+    /**
+     * @return Headers for a conditional PATCH, empty if the version is unknown
+     */
+    public synchronized Map<String, String> getPreconditionHeaders() {
+        Map<String, String> headers = new HashMap<>();
+
+        if (eTag != null) {
+            headers.put("If-Match", eTag);
+        }
+        if (lastModified != null) {
+            headers.put("If-Unmodified-Since", lastModified);
+        }
+
+        return headers;
+    }
+
+    /**
+     * Store the version after a successful conditional PATCH. The server had the version we
+     * have seen, so its new state is our state with the written changes. The content is not
+     * known, so the next GET will deliver it again.
+     *
+     * @param headers Response headers of the PATCH
+     */
+    public synchronized void written(Map<String, String> headers) {
+        eTag = header(headers, "ETag");
+        lastModified = header(headers, "Last-Modified");
+        contentHash = -1;
+    }
+
+    /**
+     * Store the version of a received resource.
+     *
+     * @param headers Response headers of the GET
+     * @param content Response body of the GET
+     * @return true if the content differs from the content of the last call
+     */
+    public synchronized boolean update(Map<String, String> headers, byte[] content) {
+        eTag = header(headers, "ETag");
+        lastModified = header(headers, "Last-Modified");
+
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        long hash = crc.getValue();
+
+        boolean changed = hash != contentHash;
+        contentHash = hash;
+
+        return changed;
+    }
+
+    /**
+     * Forget the content, but keep the version for conditional writes. This must be called if
+     * a response was not applied, so the next GET will deliver the resource again.
+     */
+    public synchronized void forgetContent() {
+        contentHash = -1;
+    }
+
+    /**
+     * Forget the version, e.g. if the resource has changed.
+     */
+    public synchronized void invalidate() {
+        eTag = null;
+        lastModified = null;
+        contentHash = -1;
+    }
+
+    /**
+     * HTTP header names are case insensitive, but the header map isn't.
+     */
+    private static String header(Map<String, String> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,292 @@
+package de.ba.railroadclient;
+
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import model.SwitchServer;
+
+/**
+ * Sets the routes of a {@link RouteTable}. The legs of a route are written to their servers in
+ * parallel, so setting a route takes as long as the slowest server and not as long as all
+ * servers together. Only a few requests are sent at the same time, the others wait until a
+ * request is answered.
+ * <p>
+ * Each leg is set with {@link SwitchJSONProxy#setRoute(SwitchRoute, SwitchJSONProxy.RouteListener)}
+ * of the proxy of its switch group, so it is written by the {@link JsonPatchPipeline} of the
+ * proxy: as a single conditional PATCH, combined with other changes of the switch group and
+ * kept in the {@link CommandJournal} while the server is unreachable. A switch group is set
+ * completely or not at all, legs on different servers can fail independently. A leg which is
+ * kept in the journal is answered at once with the error of its server, so it doesn't block the
+ * other routes. The proxy of a switch group stops to poll when its last leg is answered.
+ */
+@SuppressWarnings("WeakerAccess")
+public class RouteExecutor {
+
+    /**
+     * Maximum number of PATCH requests sent at the same time
+     */
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    /**
+     * Is informed when all legs of a route are answered
+     */
+    public interface RouteListener {
+
+        /**
+         * @param name     Name of the route
+         * @param failures Every failed leg with its error, in the order of the answers, empty if
+         *                 the whole route is set. A leg which is kept in the journal is
+         *                 reported too, it may still be set when its server is back.
+         */
+        void routeExecuted(String name, Map<RouteTable.Leg, VolleyError> failures);
+
+    }
+
+    /**
+     * A route which is being set
+     */
+    private static class Execution {
+
+        String name;
+
+        RouteListener routeListener;
+
+        int openLegs;
+
+        /**
+         * Failed legs, a leg is a key of its own even if another leg has the same server
+         */
+        Map<RouteTable.Leg, VolleyError> failures = new LinkedHashMap<>();
+    }
+
+    /**
+     * A leg which waits for its PATCH
+     */
+    private static class Task {
+
+        Execution execution;
+
+        RouteTable.Leg leg;
+
+        /**
+         * The leg is answered, a later result of a leg kept in the journal is ignored
+         */
+        boolean answered = false;
+
+        Task(Execution execution, RouteTable.Leg leg) {
+            this.execution = execution;
+            this.leg = leg;
+        }
+    }
+
+    /**
+     * HTTP request que. This queue can be shared with other tasks.
+     */
+    private RequestQueue requestQueue;
+
+    /**
+     * Will receive the error messages of the proxies
+     */
+    private Response.ErrorListener errorListener;
+
+    /**
+     * Keeps the legs which could not be sent, or null
+     */
+    private CommandJournal journal;
+
+    /**
+     * Proxies of the switch groups by the REST URL of their server
+     */
+    private Map<String, SwitchJSONProxy> proxies = new HashMap<>();
+
+    /**
+     * Number of sent legs, which are not answered yet, by the REST URL of their server
+     */
+    private Map<String, Integer> openLegs = new HashMap<>();
+
+    /**
+     * Legs which wait for their PATCH
+     */
+    private ArrayDeque<Task> waiting = new ArrayDeque<>();
+
+    /**
+     * Number of PATCH requests which are not answered yet
+     */
+    private int inFlight = 0;
+
+    /**
+     * @param requestQueue  A request dispatch queue with a thread pool of dispatchers
+     * @param errorListener Callback interface for delivering error responses, may be null
+     */
+    public RouteExecutor(RequestQueue requestQueue, Response.ErrorListener errorListener) {
+        this.requestQueue = requestQueue;
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * Legs which could not be sent, because the server was unreachable, are stored in the
+     * journal and sent again as soon as the server answers.
+     *
+     * @param journal Journal shared by all proxies, or null
+     */
+    public void setCommandJournal(CommandJournal journal) {
+        this.journal = journal;
+
+        for (SwitchJSONProxy proxy : proxies.values()) {
+            proxy.setCommandJournal(journal);
+        }
+    }
+
+    /**
+     * Stop to poll the switch groups. The next route connects again.
+     */
+    public void close() {
+        for (SwitchJSONProxy proxy : proxies.values()) {
+            proxy.setSwitchServer(null);
+        }
+        proxies.clear();
+        openLegs.clear();
+    }
+
+    /**
+     * Set all legs of a route.
+     *
+     * @param routeTable    Table which contains the route
+     * @param name          Name of the route
+     * @param routeListener Is informed when all legs are answered, may be null
+     */
+    public void execute(RouteTable routeTable, String name, RouteListener routeListener) {
+        List<RouteTable.Leg> legs = routeTable.getLegs(name);
+
+        Execution execution = new Execution();
+        execution.name = name;
+        execution.routeListener = routeListener;
+        execution.openLegs = legs.size();
+
+        if (legs.isEmpty()) {
+            finished(execution);
+            return;
+        }
+
+        for (RouteTable.Leg leg : legs) {
+            waiting.add(new Task(execution, leg));
+        }
+
+        sendRequests();
+    }
+
+    /**
+     * Send requests for waiting legs until the limit is reached
+     */
+    private void sendRequests() {
+        while (inFlight < MAX_CONCURRENT_REQUESTS && !waiting.isEmpty()) {
+            send(waiting.poll());
+        }
+    }
+
+    /**
+     * Write a single leg with the proxy of its switch group
+     */
+    private void send(final Task task) {
+        inFlight++;
+
+        String url = task.leg.getSwitchServer().getRestURL();
+        Integer legs = openLegs.get(url);
+        openLegs.put(url, legs == null ? 1 : legs + 1);
+
+        getProxy(task.leg.getSwitchServer()).setRoute(task.leg.getSwitchRoute(), new SwitchJSONProxy.RouteListener() {
+            @Override
+            public void routeSet(SwitchRoute route) {
+                answered(task, null);
+            }
+
+            @Override
+            public void routeFailed(SwitchRoute route, VolleyError error) {
+                answered(task, error);
+            }
+
+            @Override
+            public void routePending(SwitchRoute route, VolleyError error) {
+                // the journal sends the leg when the server is back, its slot is free now
+                answered(task, error);
+            }
+        });
+    }
+
+    /**
+     * @param switchServer Server of a switch group
+     * @return The proxy of the switch group, created on first use
+     */
+    private SwitchJSONProxy getProxy(SwitchServer switchServer) {
+        SwitchJSONProxy proxy = proxies.get(switchServer.getRestURL());
+
+        if (proxy == null) {
+            proxy = new SwitchJSONProxy(requestQueue, errorListener, null);
+            proxy.setCommandJournal(journal);
+            proxy.setSwitchServer(switchServer);
+            proxies.put(switchServer.getRestURL(), proxy);
+        }
+
+        return proxy;
+    }
+
+    /**
+     * A leg is answered, send the next one
+     */
+    private void answered(Task task, VolleyError error) {
+        if (task.answered) {
+            return;
+        }
+        task.answered = true;
+        inFlight--;
+        release(task.leg.getSwitchServer());
+
+        Execution execution = task.execution;
+        if (error != null) {
+            execution.failures.put(task.leg, error);
+        }
+        if (--execution.openLegs == 0) {
+            finished(execution);
+        }
+
+        sendRequests();
+    }
+
+    /**
+     * A leg of a switch group is answered, stop to poll the group after its last leg. A leg
+     * which is kept in the journal is handed over to the journal.
+     */
+    private void release(SwitchServer switchServer) {
+        String url = switchServer.getRestURL();
+        Integer legs = openLegs.get(url);
+
+        if (legs == null) {
+            // the executor was closed
+            return;
+        }
+
+        if (legs > 1) {
+            openLegs.put(url, legs - 1);
+            return;
+        }
+
+        openLegs.remove(url);
+        SwitchJSONProxy proxy = proxies.remove(url);
+        if (proxy != null) {
+            proxy.setSwitchServer(null);
+        }
+    }
+
+    private void finished(Execution execution) {
+        if (execution.routeListener != null) {
+            execution.routeListener.routeExecuted(execution.name, execution.failures);
+        }
+    }
+}
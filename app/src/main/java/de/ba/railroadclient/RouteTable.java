@@ -0,0 +1,91 @@
+package de.ba.railroadclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import model.SwitchServer;
+
+/**
+ * Named routes across several switch groups. A route has legs on one or more
+ * {@link SwitchServer}s, each leg is a {@link SwitchRoute} for the switch group of its server.
+ * The routes are set by a {@link RouteExecutor}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class RouteTable {
+
+    /**
+     * The part of a route on a single switch server. Legs are compared by identity, so two legs
+     * on the same server are reported separately.
+     */
+    public static class Leg {
+
+        private final SwitchServer switchServer;
+
+        private final SwitchRoute switchRoute;
+
+        Leg(SwitchServer switchServer, SwitchRoute switchRoute) {
+            this.switchServer = switchServer;
+            this.switchRoute = switchRoute;
+        }
+
+        public SwitchServer getSwitchServer() {
+            return switchServer;
+        }
+
+        public SwitchRoute getSwitchRoute() {
+            return switchRoute;
+        }
+    }
+
+    /**
+     * Legs by the name of the route, in the order the routes were added
+     */
+    private Map<String, List<Leg>> routes = new LinkedHashMap<>();
+
+    /**
+     * Add a leg to a route. The route is created with its first leg.
+     *
+     * @param name         Name of the route
+     * @param switchServer Server of the switch group
+     * @param switchRoute  Switches to set on this server
+     * @return This table
+     */
+    public RouteTable addLeg(String name, SwitchServer switchServer, SwitchRoute switchRoute) {
+        List<Leg> legs = routes.get(name);
+
+        if (legs == null) {
+            legs = new ArrayList<>();
+            routes.put(name, legs);
+        }
+
+        legs.add(new Leg(switchServer, switchRoute));
+        return this;
+    }
+
+    /**
+     * @param name Name of the route
+     */
+    public void removeRoute(String name) {
+        routes.remove(name);
+    }
+
+    /**
+     * @param name Name of the route
+     * @return The legs of the route, empty if the route is unknown
+     */
+    public List<Leg> getLegs(String name) {
+        List<Leg> legs = routes.get(name);
+        return legs == null ? Collections.<Leg>emptyList() : Collections.unmodifiableList(legs);
+    }
+
+    /**
+     * @return Names of all routes
+     */
+    public Set<String> getRouteNames() {
+        return Collections.unmodifiableSet(routes.keySet());
+    }
+}
@@ -0,0 +1,59 @@
+package de.ba.railroadclient;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A server list as read from a registry endpoint. Besides the JSON array it keeps the JSON
+ * texts of the servers, which {@link JsonListDiff} uses to find the changes. The list is
+ * created on the network thread, so the main thread doesn't convert the servers again.
+ * <p>
+ * The list is immutable and can be shared by all listeners of an endpoint.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ServerList {
+
+    /**
+     * The list as sent by the server
+     */
+    private final JSONArray array;
+
+    /**
+     * JSON texts of the servers, see {@link JsonListDiff#keys(JSONArray)}
+     */
+    private final List<String> items;
+
+    /**
+     * @param array The list as sent by the server, it must not be changed anymore
+     */
+    public ServerList(JSONArray array) {
+        this.array = array;
+        this.items = Collections.unmodifiableList(JsonListDiff.keys(array));
+    }
+
+    /**
+     * @param json The list as JSON string
+     * @return The list
+     * @throws JSONException if the string is no JSON array
+     */
+    public static ServerList parse(String json) throws JSONException {
+        return new ServerList(new JSONArray(json));
+    }
+
+    /**
+     * @return The list as sent by the server, it must not be changed
+     */
+    public JSONArray getArray() {
+        return array;
+    }
+
+    /**
+     * @return JSON texts of the servers in list order, without duplicates
+     */
+    public List<String> getItems() {
+        return items;
+    }
+}
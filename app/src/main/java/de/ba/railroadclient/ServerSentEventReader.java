@@ -0,0 +1,89 @@
+package de.ba.railroadclient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Reads a stream of Server-Sent Events (content type <code>text/event-stream</code>). The reader
+ * only supports what a railroad server needs: <code>event</code> and <code>data</code> fields,
+ * multi line data and comments, which are used as keep alive messages.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ServerSentEventReader {
+
+    /**
+     * Will receive the events of the stream
+     */
+    public interface EventHandler {
+
+        /**
+         * @param event Name of the event, "message" if the server didn't send a name
+         * @param data  Content of the event
+         */
+        void onEvent(String event, String data);
+
+    }
+
+    /**
+     * Stream to read from
+     */
+    private BufferedReader reader;
+
+    /**
+     * @param reader Stream to read from, should be decoded as UTF-8
+     */
+    public ServerSentEventReader(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Read events until the stream is closed.
+     *
+     * @param handler Will receive the events
+     * @throws IOException if the stream can not be read
+     */
+    public void read(EventHandler handler) throws IOException {
+        String event = null;
+        StringBuilder data = new StringBuilder();
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // an empty line dispatches the event
+            if (line.isEmpty()) {
+                if (data.length() > 0) {
+                    handler.onEvent(event == null ? "message" : event, data.toString());
+                }
+
+                event = null;
+                data.setLength(0);
+                continue;
+            }
+
+            // comment, used to keep the connection alive
+            if (line.startsWith(":")) {
+                continue;
+            }
+
+            String field = line;
+            String value = "";
+
+            int colon = line.indexOf(':');
+            if (colon >= 0) {
+                field = line.substring(0, colon);
+                value = line.substring(colon + 1);
+                if (value.startsWith(" ")) {
+                    value = value.substring(1);
+                }
+            }
+
+            if (field.equals("event")) {
+                event = value;
+            } else if (field.equals("data")) {
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package de.ba.railroadclient;
+
+import android.util.JsonReader;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+
+import model.SwitchGroup;
+import model.SwitchGroupDAO;
+import model.SwitchGroupPOJO;
+
+/**
+ * Decodes switch groups from JSON in a single pass, see {@link LocomotiveCodec}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class SwitchGroupCodec {
+
+    /**
+     * Codec for a {@link PolledResource} of switch groups
+     */
+    public static final ResourceCodec<SwitchGroup> RESOURCE_CODEC = new ResourceCodec<SwitchGroup>() {
+
+        @Override
+        public boolean read(byte[] json, SwitchGroup target) {
+            return SwitchGroupCodec.read(json, target);
+        }
+
+        @Override
+        public boolean read(String json, SwitchGroup target) {
+            return SwitchGroupCodec.read(json, target);
+        }
+
+        @Override
+        public SwitchGroup create() {
+            return new SwitchGroupPOJO();
+        }
+
+        @Override
+        public void copy(SwitchGroup source, SwitchGroup target) {
+            SwitchGroupCodec.copy(source, target);
+        }
+
+        @Override
+        public JSONObject toJSON(SwitchGroup resource) {
+            return SwitchGroupDAO.toJSON(resource);
+        }
+    };
+
+    private SwitchGroupCodec() {
+    }
+
+    /**
+     * @param json   Switch group as UTF-8 encoded JSON, e.g. the body of a HTTP response
+     * @param target Switch group to change
+     * @return true if the switch group could be read
+     */
+    public static boolean read(byte[] json, SwitchGroup target) {
+        try {
+            return read(new InputStreamReader(new ByteArrayInputStream(json), "UTF-8"), target);
+        } catch (UnsupportedEncodingException e) {
+            Log.e("main", "UTF-8 not supported", e);
+            return false;
+        }
+    }
+
+    /**
+     * @param json   Switch group as JSON string
+     * @param target Switch group to change
+     * @return true if the switch group could be read
+     */
+    public static boolean read(String json, SwitchGroup target) {
+        return read(new StringReader(json), target);
+    }
+
+    /**
+     * Read all known fields of a JSON object into a switch group. Unknown fields are skipped,
+     * missing fields are not changed.
+     *
+     * @param json   Switch group as JSON
+     * @param target Switch group to change
+     * @return true if the switch group could be read
+     */
+    public static boolean read(Reader json, SwitchGroup target) {
+        JsonReader reader = new JsonReader(json);
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                SwitchGroupField field = SwitchGroupField.forKey(reader.nextName());
+
+                if (field == null) {
+                    reader.skipValue();
+                } else {
+                    field.read(reader, target);
+                }
+            }
+            reader.endObject();
+
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.e("main", "can not read switch group", e);
+            return false;
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // nothing to do, the stream is in memory
+            }
+        }
+    }
+
+    /**
+     * Copy all fields of a switch group.
+     *
+     * @param source Switch group to copy
+     * @param target Switch group to change
+     */
+    public static void copy(SwitchGroup source, SwitchGroup target) {
+        target.setId(source.getId());
+        target.setSwitchTrack1(source.getSwitchTrack1());
+        target.setSwitchTrack2(source.getSwitchTrack2());
+        target.setSwitchTrack3(source.getSwitchTrack3());
+        target.setSwitchTrack4(source.getSwitchTrack4());
+    }
+}
@@ -0,0 +1,137 @@
+package de.ba.railroadclient;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import model.SwitchGroup;
+import model.SwitchGroupDAO;
+
+/**
+ * The fields of a {@link SwitchGroup}. Each field knows how to read and write itself, so a
+ * switch group can be decoded from a JSON stream without building a temporary object.
+ * <p>
+ * The JSON keys are the names written by {@link SwitchGroupDAO}, SwitchGroupFieldTest checks
+ * that both agree.
+ */
+@SuppressWarnings("WeakerAccess")
+public enum SwitchGroupField {
+
+    ID("id") {
+        @Override
+        public Object get(SwitchGroup switchGroup) {
+            return switchGroup.getId();
+        }
+
+        @Override
+        public void read(JsonReader reader, SwitchGroup switchGroup) throws IOException {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                switchGroup.setId(null);
+            } else {
+                switchGroup.setId(reader.nextString());
+            }
+        }
+    },
+
+    SWITCH_TRACK_1("switchTrack1") {
+        @Override
+        public Object get(SwitchGroup switchGroup) {
+            return switchGroup.getSwitchTrack1();
+        }
+
+        @Override
+        public void read(JsonReader reader, SwitchGroup switchGroup) throws IOException {
+            switchGroup.setSwitchTrack1(reader.nextInt());
+        }
+    },
+
+    SWITCH_TRACK_2("switchTrack2") {
+        @Override
+        public Object get(SwitchGroup switchGroup) {
+            return switchGroup.getSwitchTrack2();
+        }
+
+        @Override
+        public void read(JsonReader reader, SwitchGroup switchGroup) throws IOException {
+            switchGroup.setSwitchTrack2(reader.nextInt());
+        }
+    },
+
+    SWITCH_TRACK_3("switchTrack3") {
+        @Override
+        public Object get(SwitchGroup switchGroup) {
+            return switchGroup.getSwitchTrack3();
+        }
+
+        @Override
+        public void read(JsonReader reader, SwitchGroup switchGroup) throws IOException {
+            switchGroup.setSwitchTrack3(reader.nextInt());
+        }
+    },
+
+    SWITCH_TRACK_4("switchTrack4") {
+        @Override
+        public Object get(SwitchGroup switchGroup) {
+            return switchGroup.getSwitchTrack4();
+        }
+
+        @Override
+        public void read(JsonReader reader, SwitchGroup switchGroup) throws IOException {
+            switchGroup.setSwitchTrack4(reader.nextInt());
+        }
+    };
+
+    /**
+     * Fields by their JSON key
+     */
+    private static final Map<String, SwitchGroupField> FIELDS_BY_KEY = new HashMap<>();
+
+    static {
+        for (SwitchGroupField field : values()) {
+            FIELDS_BY_KEY.put(field.key, field);
+        }
+    }
+
+    /**
+     * JSON key of this field as written by {@link SwitchGroupDAO}
+     */
+    private final String key;
+
+    SwitchGroupField(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @param switchGroup Switch group to read from
+     * @return Value of this field
+     */
+    public abstract Object get(SwitchGroup switchGroup);
+
+    /**
+     * Read the next value from a JSON stream into this field.
+     *
+     * @param reader      Stream positioned at the value of this field
+     * @param switchGroup Switch group to change
+     * @throws IOException if the value can not be read
+     */
+    public abstract void read(JsonReader reader, SwitchGroup switchGroup) throws IOException;
+
+    /**
+     * @param key JSON key written by {@link SwitchGroupDAO}
+     * @return The field with this key, or null if the key is unknown
+     */
+    public static SwitchGroupField forKey(String key) {
+        return FIELDS_BY_KEY.get(key);
+    }
+
+    /**
+     * @return JSON key of this field as written by {@link SwitchGroupDAO}
+     */
+    public String key() {
+        return key;
+    }
+}
@@ -1,17 +1,10 @@
 package de.ba.railroadclient;
 
-import android.os.Handler;
-import android.os.Looper;
-
-import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
-import com.android.volley.toolbox.JsonObjectRequest;
-
-import org.json.JSONObject;
+import com.android.volley.VolleyError;
 
 import model.SwitchGroup;
-import model.SwitchGroupDAO;
 import model.SwitchGroupPOJO;
 import model.SwitchServer;
 
@@ -19,6 +12,7 @@ import model.SwitchServer;
  * Proxy to communicate with a web server. The proxy will repeatedly read JSON objects from the
  * server and update itself. After each update {@link SwitchListener#switchChanged(SwitchGroup)}
  * is called. To be notified about updates one should call the constructor with a valid listener.
+ * The switch group is polled and written by a {@link PolledResource}.
  */
 @SuppressWarnings("WeakerAccess")
 public class SwitchJSONProxy implements SwitchGroup {
@@ -29,19 +23,9 @@ public class SwitchJSONProxy implements SwitchGroup {
     private SwitchServer switchServer;
 
     /**
-     * HTTP request que. This queue can be shared with other tasks.
-     */
-    private RequestQueue requestQueue;
-
-    /**
-     * the Update Handler is responsible for calling the update task
-     */
-    private Handler updateHandler;
-
-    /**
-     * Will receive the error messages
+     * Polls the switch group and writes its changes
      */
-    private Response.ErrorListener errorListener;
+    private PolledResource<SwitchGroup> resource;
 
     /**
      * Simple POJO to store switches state
@@ -50,7 +34,7 @@ public class SwitchJSONProxy implements SwitchGroup {
 
     /**
      * Interface should be implemented from the client. It is used as a parameter
-     * for {@link #postSwitch(SwitchChanger)}.
+     * for the constructor.
      */
     public interface SwitchListener {
 
@@ -72,106 +56,111 @@ public class SwitchJSONProxy implements SwitchGroup {
      */
     public SwitchJSONProxy(RequestQueue requestQueue, Response.ErrorListener errorListener, SwitchListener switchListener) {
         this.pojo = new SwitchGroupPOJO();
-
-        this.requestQueue = requestQueue;
-        this.errorListener = errorListener;
         this.switchListener = switchListener;
 
-        // update the list of active switch servers
-        updateHandler = new Handler(Looper.getMainLooper());
-        updateHandler.post(updateRunnable);
+        this.resource = new PolledResource<>(requestQueue, errorListener, SwitchGroupCodec.RESOURCE_CODEC, pojo, new PolledResource.ResourceListener<SwitchGroup>() {
+            @Override
+            public void resourceChanged(SwitchGroup switchGroup) {
+                if (SwitchJSONProxy.this.switchListener != null) {
+                    SwitchJSONProxy.this.switchListener.switchChanged(SwitchJSONProxy.this);
+                }
+            }
+        });
     }
 
     public void setSwitchServer(SwitchServer switchServer) {
         this.switchServer = switchServer;
+
+        // the new switches are read immediately
+        resource.setURL(switchServer == null ? null : switchServer.getRestURL());
     }
 
     /**
-     * The Updater will periodically read the current switch state and update the view
+     * Changes which could not be sent, because the server was unreachable, are stored in the
+     * journal and sent again as soon as the server answers.
+     *
+     * @param journal Journal shared by all proxies, or null
      */
-    private Runnable updateRunnable = new Runnable() {
-
-        @Override
-        public void run() {
-            // call this method again in 1 second
-            updateHandler.postDelayed(updateRunnable, 2000);
-
-            // do we have a server?
-            if (switchServer == null) {
-                return;
-            }
-            // connect to this server
-            JsonObjectRequest getRequest = new JsonObjectRequest(Request.Method.GET, switchServer.getRestURL(), null, new Response.Listener<JSONObject>() {
-                @Override
-                public void onResponse(JSONObject response) {
-                    // read the current locomotive
-                    SwitchGroup currentSwitchGroup = SwitchGroupDAO.read(response.toString());
-                    setId(currentSwitchGroup.getId());
-                    SwitchGroupDAO.copy(currentSwitchGroup, pojo);
-
-                    if (switchListener != null) {
-                        switchListener.switchChanged(SwitchJSONProxy.this);
-                    }
-
-                }
-            }, errorListener);
-
-            // add the GET action to the request que
-            requestQueue.add(getRequest);
-        }
-    };
+    public void setCommandJournal(CommandJournal journal) {
+        resource.setCommandJournal(journal);
+    }
 
     /**
-     * The interface defines a method to change a switch. An instance can be used
-     * as a parameter for {@link #postSwitch(SwitchChanger)}.
+     * Is informed if a route was set or not
      */
-    private interface SwitchChanger {
+    public interface RouteListener {
 
         /**
-         * @param switchGroup SwitchGroup to change
+         * @param route All switches of the route are set
          */
-        void changeSwitch(SwitchGroup switchGroup);
+        void routeSet(SwitchRoute route);
+
+        /**
+         * @param route No switch of the route was set
+         * @param error Why the route was not set
+         */
+        void routeFailed(SwitchRoute route, VolleyError error);
+
+        /**
+         * The server was unreachable, the route is kept in the journal and sent again when the
+         * server is back. {@link #routeSet(SwitchRoute)} or
+         * {@link #routeFailed(SwitchRoute, VolleyError)} follows later.
+         *
+         * @param route Switches which are not set yet
+         * @param error Why the route could not be sent
+         */
+        void routePending(SwitchRoute route, VolleyError error);
+
     }
 
     /**
-     * (1) Read a switch group from current <code>switchServer</code>
-     * (2) Change the locomotive, using the {@link SwitchChanger}
-     * (3) Write back the changed switch group to current <code>switchServer</code>
+     * Set several switches with a single PATCH. The server accepts all switches of the route
+     * or none of them. The route is shown at once, if it fails the switches are set back.
+     *
+     * @param route         Switches to set
+     * @param routeListener Is informed about the result, may be null
      */
-    private void postSwitch(final SwitchChanger switchChanger) {
-
-        // do we have a server?
+    public void setRoute(final SwitchRoute route, final RouteListener routeListener) {
         if (switchServer == null) {
+            if (routeListener != null) {
+                routeListener.routeFailed(route, new VolleyError("no switch server"));
+            }
             return;
         }
 
-        // send changes to this server
-        JsonObjectRequest getRequest = new JsonObjectRequest(Request.Method.GET, switchServer.getRestURL(), null, new Response.Listener<JSONObject>() {
-            @Override
-            public void onResponse(JSONObject response) {
-
-                // read the current locomotive and increase speed
-                SwitchGroup currentSwitch = SwitchGroupDAO.read(response.toString());
-                switchChanger.changeSwitch(currentSwitch);
+        final SwitchServer routeServer = switchServer;
+        final SwitchRoute previous = route.current(pojo);
+        route.apply(pojo);
 
-                // get a AbstractJsonArrayAdapter string from it
-                JSONObject jsonObject = SwitchGroupDAO.toJSON(currentSwitch);
+        // all switches of the route are sent, even if they are already set
+        resource.submit(route.toDelta(), new JsonPatchPipeline.CommitListener() {
+            @Override
+            public void committed() {
+                if (routeListener != null) {
+                    routeListener.routeSet(route);
+                }
+            }
 
-                // debug the current locomotive
-                JsonObjectRequest postRequest = new JsonObjectRequest(Request.Method.PATCH, switchServer.getRestURL(), jsonObject, new Response.Listener<JSONObject>() {
-                    @Override
-                    public void onResponse(JSONObject response) {
-                        // empty listener
-                    }
-                }, errorListener);
+            @Override
+            public void failed(VolleyError error) {
+                // no switch was set on the server, unless we have moved to another one
+                if (switchServer == routeServer && route.revert(pojo, previous) && switchListener != null) {
+                    switchListener.switchChanged(SwitchJSONProxy.this);
+                }
 
-                // add the POST action to the request queue
-                requestQueue.add(postRequest);
+                if (routeListener != null) {
+                    routeListener.routeFailed(route, error);
+                }
             }
-        }, errorListener);
 
-        // add the GET action to the request que
-        requestQueue.add(getRequest);
+            @Override
+            public void parked(VolleyError error) {
+                // the route is still shown, it is set when the server is back
+                if (routeListener != null) {
+                    routeListener.routePending(route, error);
+                }
+            }
+        });
     }
 
     @Override
@@ -181,14 +170,13 @@ public class SwitchJSONProxy implements SwitchGroup {
 
     @Override
     public void setSwitchTrack1(final int track) {
-        if (pojo.getSwitchTrack1() == track) {
+        if (resource.isLoaded() && pojo.getSwitchTrack1() == track) {
             return;
         }
 
-        pojo.setSwitchTrack1(track);
-        postSwitch(new SwitchChanger() {
+        resource.change(SwitchGroupField.SWITCH_TRACK_1.key(), new PolledResource.Changer<SwitchGroup>() {
             @Override
-            public void changeSwitch(SwitchGroup switchGroup) {
+            public void change(SwitchGroup switchGroup) {
                 switchGroup.setSwitchTrack1(track);
             }
         });
@@ -201,14 +189,13 @@ public class SwitchJSONProxy implements SwitchGroup {
 
     @Override
     public void setSwitchTrack2(final int track) {
-        if (pojo.getSwitchTrack2() == track) {
+        if (resource.isLoaded() && pojo.getSwitchTrack2() == track) {
             return;
         }
 
-        pojo.setSwitchTrack2(track);
-        postSwitch(new SwitchChanger() {
+        resource.change(SwitchGroupField.SWITCH_TRACK_2.key(), new PolledResource.Changer<SwitchGroup>() {
             @Override
-            public void changeSwitch(SwitchGroup switchGroup) {
+            public void change(SwitchGroup switchGroup) {
                 switchGroup.setSwitchTrack2(track);
             }
         });
@@ -221,14 +208,13 @@ public class SwitchJSONProxy implements SwitchGroup {
 
     @Override
     public void setSwitchTrack3(final int track) {
-        if (pojo.getSwitchTrack3() == track) {
+        if (resource.isLoaded() && pojo.getSwitchTrack3() == track) {
             return;
         }
 
-        pojo.setSwitchTrack3(track);
-        postSwitch(new SwitchChanger() {
+        resource.change(SwitchGroupField.SWITCH_TRACK_3.key(), new PolledResource.Changer<SwitchGroup>() {
             @Override
-            public void changeSwitch(SwitchGroup switchGroup) {
+            public void change(SwitchGroup switchGroup) {
                 switchGroup.setSwitchTrack3(track);
             }
         });
@@ -241,14 +227,13 @@ public class SwitchJSONProxy implements SwitchGroup {
 
     @Override
     public void setSwitchTrack4(final int track) {
-        if (pojo.getSwitchTrack4() == track) {
+        if (resource.isLoaded() && pojo.getSwitchTrack4() == track) {
             return;
         }
 
-        pojo.setSwitchTrack4(track);
-        postSwitch(new SwitchChanger() {
+        resource.change(SwitchGroupField.SWITCH_TRACK_4.key(), new PolledResource.Changer<SwitchGroup>() {
             @Override
-            public void changeSwitch(SwitchGroup switchGroup) {
+            public void change(SwitchGroup switchGroup) {
                 switchGroup.setSwitchTrack4(track);
             }
         });
@@ -0,0 +1,187 @@
+package de.ba.railroadclient;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import model.SwitchGroup;
+
+/**
+ * Settings of several switches of a {@link SwitchGroup}, which must be set together. Switches
+ * without a setting are not changed by the route.
+ */
+@SuppressWarnings("WeakerAccess")
+public class SwitchRoute {
+
+    /**
+     * Number of switches of a switch group
+     */
+    public static final int SWITCH_COUNT = 4;
+
+    /**
+     * The switch is not changed by the route
+     */
+    public static final int UNCHANGED = -1;
+
+    /**
+     * Fields of the switches 1 to 4
+     */
+    private static final SwitchGroupField[] FIELDS = {
+            SwitchGroupField.SWITCH_TRACK_1, SwitchGroupField.SWITCH_TRACK_2,
+            SwitchGroupField.SWITCH_TRACK_3, SwitchGroupField.SWITCH_TRACK_4
+    };
+
+    /**
+     * Name of the route, e.g. to show it to the user
+     */
+    private String name;
+
+    /**
+     * Tracks of the switches 1 to 4, or {@link #UNCHANGED}
+     */
+    private int[] tracks = {UNCHANGED, UNCHANGED, UNCHANGED, UNCHANGED};
+
+    /**
+     * @param name Name of the route
+     */
+    public SwitchRoute(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param switchNumber Number of the switch, 1 to 4
+     * @param track        Track of the switch, or {@link #UNCHANGED}
+     * @return This route
+     */
+    public SwitchRoute setTrack(int switchNumber, int track) {
+        tracks[switchNumber - 1] = track;
+        return this;
+    }
+
+    /**
+     * @param switchNumber Number of the switch, 1 to 4
+     * @return Track of the switch, or {@link #UNCHANGED}
+     */
+    public int getTrack(int switchNumber) {
+        return tracks[switchNumber - 1];
+    }
+
+    /**
+     * Set the tracks of the route.
+     *
+     * @param switchGroup Switch group to change
+     */
+    public void apply(SwitchGroup switchGroup) {
+        for (int i = 1; i <= SWITCH_COUNT; i++) {
+            if (getTrack(i) != UNCHANGED) {
+                setTrack(switchGroup, i, getTrack(i));
+            }
+        }
+    }
+
+    /**
+     * The tracks the switches of this route have now, e.g. to take the route back if it could
+     * not be set.
+     *
+     * @param switchGroup Switch group to read
+     * @return A route which sets the switches of this route to their current tracks
+     */
+    public SwitchRoute current(SwitchGroup switchGroup) {
+        SwitchRoute current = new SwitchRoute(name);
+
+        for (int i = 1; i <= SWITCH_COUNT; i++) {
+            if (getTrack(i) != UNCHANGED) {
+                current.setTrack(i, getTrack(switchGroup, i));
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Set the switches back to the tracks of another route, but only those which still have
+     * the track of this route. Switches changed in the meantime are kept.
+     *
+     * @param switchGroup Switch group to change
+     * @param previous    Tracks before this route was applied, see {@link #current(SwitchGroup)}
+     * @return true if a switch was changed
+     */
+    public boolean revert(SwitchGroup switchGroup, SwitchRoute previous) {
+        boolean changed = false;
+
+        for (int i = 1; i <= SWITCH_COUNT; i++) {
+            if (getTrack(i) != UNCHANGED && getTrack(switchGroup, i) == getTrack(i) && previous.getTrack(i) != UNCHANGED) {
+                setTrack(switchGroup, i, previous.getTrack(i));
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * All settings of the route as JSON fields, even if a switch already has its track. So
+     * the route is complete, if it is sent again on top of a newer server state.
+     *
+     * @return The fields of the switches of the route
+     */
+    public JSONObject toDelta() {
+        JSONObject delta = new JSONObject();
+
+        try {
+            for (int i = 1; i <= SWITCH_COUNT; i++) {
+                if (getTrack(i) != UNCHANGED) {
+                    delta.put(FIELDS[i - 1].key(), getTrack(i));
+                }
+            }
+        } catch (JSONException e) {
+            Log.e("main", "can not write route " + name, e);
+        }
+
+        return delta;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static int getTrack(SwitchGroup switchGroup, int switchNumber) {
+        switch (switchNumber) {
+            case 1:
+                return switchGroup.getSwitchTrack1();
+            case 2:
+                return switchGroup.getSwitchTrack2();
+            case 3:
+                return switchGroup.getSwitchTrack3();
+            case 4:
+                return switchGroup.getSwitchTrack4();
+            default:
+                throw new IllegalArgumentException("no such switch: " + switchNumber);
+        }
+    }
+
+    private static void setTrack(SwitchGroup switchGroup, int switchNumber, int track) {
+        switch (switchNumber) {
+            case 1:
+                switchGroup.setSwitchTrack1(track);
+                break;
+            case 2:
+                switchGroup.setSwitchTrack2(track);
+                break;
+            case 3:
+                switchGroup.setSwitchTrack3(track);
+                break;
+            case 4:
+                switchGroup.setSwitchTrack4(track);
+                break;
+            default:
+                throw new IllegalArgumentException("no such switch: " + switchNumber);
+        }
+    }
+}
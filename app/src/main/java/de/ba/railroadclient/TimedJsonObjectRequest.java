@@ -0,0 +1,123 @@
+package de.ba.railroadclient;
+
+import android.os.SystemClock;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.android.volley.toolbox.JsonObjectRequest;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JSON request which records its latencies in {@link CommandLatency}: the time it waited in
+ * the queue and its round trip time. Both are measured on the network thread, so the time the
+ * response waits for the main thread is not included.
+ * <p>
+ * With a {@link ResourceVersion} the request is conditional: the server rejects it with
+ * 412 Precondition Failed, if the resource was changed by someone else.
+ * <p>
+ * A write is successful as soon as the server answers with 2xx, an empty body or a body which
+ * is not a JSON object is delivered as empty object.
+ */
+@SuppressWarnings("WeakerAccess")
+public class TimedJsonObjectRequest extends JsonObjectRequest {
+
+    /**
+     * {@link SystemClock#elapsedRealtime()} when the command was issued, 0 if unknown
+     */
+    private final long commandTime;
+
+    /**
+     * {@link SystemClock#elapsedRealtime()} when the request was sent
+     */
+    private volatile long sendTime;
+
+    /**
+     * Version the resource must have on the server, or null for an unconditional request
+     */
+    private ResourceVersion version;
+
+    /**
+     * Priority in the request queue, see {@link TrafficClass}
+     */
+    private Priority priority = TrafficClass.CONTROL;
+
+    /**
+     * @param method        the HTTP method to use
+     * @param url           URL of the resource
+     * @param jsonRequest   A JSONObject to send with the request, or null
+     * @param commandTime   {@link SystemClock#elapsedRealtime()} when the command was issued,
+     *                      0 if the queue wait should not be recorded
+     * @param listener      Listener to receive the JSON response
+     * @param errorListener Error listener, or null to ignore errors
+     */
+    public TimedJsonObjectRequest(int method, String url, JSONObject jsonRequest, long commandTime, Response.Listener<JSONObject> listener, Response.ErrorListener errorListener) {
+        super(method, url, jsonRequest, listener, errorListener);
+        this.commandTime = commandTime;
+    }
+
+    /**
+     * Called by the network thread right before the request is sent
+     */
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        sendTime = SystemClock.elapsedRealtime();
+
+        if (commandTime > 0) {
+            CommandLatency.getInstance().record(getUrl(), CommandLatency.Stage.QUEUE_WAIT, sendTime - commandTime);
+        }
+
+        if (version == null) {
+            return super.getHeaders();
+        }
+
+        Map<String, String> headers = new HashMap<>(super.getHeaders());
+        headers.putAll(version.getPreconditionHeaders());
+        return headers;
+    }
+
+    /**
+     * Make the request conditional. A successful request stores the new version.
+     *
+     * @param version Version the resource must have on the server
+     */
+    public void setVersion(ResourceVersion version) {
+        this.version = version;
+    }
+
+    /**
+     * @param priority Priority in the request queue, see {@link TrafficClass}
+     */
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return priority;
+    }
+
+    @Override
+    protected Response<JSONObject> parseNetworkResponse(NetworkResponse response) {
+        CommandLatency.Stage stage = getMethod() == Method.GET ? CommandLatency.Stage.GET_ROUND_TRIP : CommandLatency.Stage.PATCH_ROUND_TRIP;
+        CommandLatency.getInstance().record(getUrl(), stage, SystemClock.elapsedRealtime() - sendTime);
+
+        if (version != null && getMethod() != Method.GET) {
+            version.written(response.headers);
+        }
+
+        Response<JSONObject> result = super.parseNetworkResponse(response);
+
+        // the server has applied the write, even if its answer can not be parsed
+        if (!result.isSuccess() && getMethod() != Method.GET) {
+            return Response.success(new JSONObject(), HttpHeaderParser.parseCacheHeaders(response));
+        }
+
+        return result;
+    }
+}
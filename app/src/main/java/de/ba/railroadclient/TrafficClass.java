@@ -0,0 +1,40 @@
+package de.ba.railroadclient;
+
+import com.android.volley.Request;
+
+/**
+ * Priorities of the requests in the shared request queue. Volley takes waiting requests with
+ * a higher priority first, so a command never waits behind background polling when the
+ * network is slow. Requests already on their way are not interrupted.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class TrafficClass {
+
+    /**
+     * Lists of servers, nobody is waiting for them
+     */
+    public static final Request.Priority DISCOVERY = Request.Priority.LOW;
+
+    /**
+     * Polling of locomotives and switches which are not controlled right now
+     */
+    public static final Request.Priority BACKGROUND = Request.Priority.LOW;
+
+    /**
+     * Polling of the controlled locomotive and switches
+     */
+    public static final Request.Priority STATE = Request.Priority.NORMAL;
+
+    /**
+     * Commands of the user and the requests they depend on
+     */
+    public static final Request.Priority CONTROL = Request.Priority.HIGH;
+
+    /**
+     * Stop of a locomotive, e.g. when the time of the user is over
+     */
+    public static final Request.Priority EMERGENCY = Request.Priority.IMMEDIATE;
+
+    private TrafficClass() {
+    }
+}
@@ -0,0 +1,204 @@
+package de.ba.railroadclient;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the changes {@link JsonListDiff} makes to a list. The items are the ids of the JSON
+ * objects, the target records every change.
+ */
+public class JsonListDiffTest {
+
+    /**
+     * Reads the id of an item, an item without id can not be read
+     */
+    private final JsonListDiff.ItemReader<String> reader = new JsonListDiff.ItemReader<String>() {
+        @Override
+        public String read(String json) {
+            try {
+                String id = new JSONObject(json).optString("id", null);
+                if ("broken".equals(id)) {
+                    throw new IllegalStateException("broken item");
+                }
+                return id;
+            } catch (JSONException e) {
+                return null;
+            }
+        }
+    };
+
+    private final RecordingTarget target = new RecordingTarget();
+
+    private final JsonListDiff<String> diff = new JsonListDiff<>();
+
+    @Test
+    public void update_insertsTheFirstItems() throws Exception {
+        assertTrue(diff.update(keys("a", "b"), reader, target));
+
+        assertEquals(Arrays.asList("a", "b"), target.list);
+        assertEquals(Arrays.asList("insert a 0", "insert b 1"), target.operations);
+        assertEquals(2, diff.size());
+    }
+
+    @Test
+    public void update_unchangedArray_changesNothing() throws Exception {
+        diff.update(keys("a", "b"), reader, target);
+        target.operations.clear();
+
+        assertFalse(diff.update(keys("a", "b"), reader, target));
+        assertTrue(target.operations.isEmpty());
+    }
+
+    @Test
+    public void update_removesItems() throws Exception {
+        diff.update(keys("a", "b", "c", "d"), reader, target);
+        target.operations.clear();
+
+        assertTrue(diff.update(keys("a", "c"), reader, target));
+
+        assertEquals(Arrays.asList("a", "c"), target.list);
+        // removed from the end
+        assertEquals(Arrays.asList("remove 3", "remove 1"), target.operations);
+    }
+
+    @Test
+    public void update_insertsItems() throws Exception {
+        diff.update(keys("a", "c"), reader, target);
+        target.operations.clear();
+
+        assertTrue(diff.update(keys("a", "b", "c", "d"), reader, target));
+
+        assertEquals(Arrays.asList("a", "b", "c", "d"), target.list);
+        assertEquals(Arrays.asList("insert b 1", "insert d 3"), target.operations);
+    }
+
+    @Test
+    public void update_removesAndInsertsItems() throws Exception {
+        diff.update(keys("a", "b", "c"), reader, target);
+        target.operations.clear();
+
+        assertTrue(diff.update(keys("x", "a", "c", "y"), reader, target));
+
+        assertEquals(Arrays.asList("x", "a", "c", "y"), target.list);
+        assertEquals(Arrays.asList("remove 1", "insert x 0", "insert y 3"), target.operations);
+    }
+
+    @Test
+    public void update_reorderedItems_rebuildTheList() throws Exception {
+        diff.update(keys("a", "b", "c"), reader, target);
+        target.operations.clear();
+
+        assertTrue(diff.update(keys("c", "a", "b"), reader, target));
+
+        assertEquals(Arrays.asList("c", "a", "b"), target.list);
+        assertEquals(Collections.singletonList("replaceAll"), target.operations);
+    }
+
+    @Test
+    public void update_manyChanges_rebuildTheList() throws Exception {
+        diff.update(keys("a"), reader, target);
+        target.operations.clear();
+
+        // 17 inserts are more than the incremental limit
+        String[] ids = new String[18];
+        ids[0] = "a";
+        for (int i = 1; i < ids.length; i++) {
+            ids[i] = "item" + i;
+        }
+        assertTrue(diff.update(keys(ids), reader, target));
+
+        assertEquals(Arrays.asList(ids), target.list);
+        assertEquals(Collections.singletonList("replaceAll"), target.operations);
+    }
+
+    @Test
+    public void update_sixteenChanges_areIncremental() throws Exception {
+        String[] ids = new String[16];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "item" + i;
+        }
+        assertTrue(diff.update(keys(ids), reader, target));
+
+        assertEquals(Arrays.asList(ids), target.list);
+        assertEquals(16, target.operations.size());
+        assertFalse(target.operations.contains("replaceAll"));
+    }
+
+    @Test
+    public void update_unreadableItems_areSkippedAndReadAgain() throws Exception {
+        List<String> itemKeys = keys("a", "broken", "b");
+        itemKeys.add(1, "{\"name\":\"no id\"}");
+
+        assertTrue(diff.update(itemKeys, reader, target));
+        assertEquals(Arrays.asList("a", "b"), target.list);
+        assertEquals(2, diff.size());
+
+        // the same array again is no change, the unreadable items are tried again
+        target.operations.clear();
+        assertFalse(diff.update(itemKeys, reader, target));
+        assertTrue(target.operations.isEmpty());
+    }
+
+    @Test
+    public void update_array_skipsNoObjectsAndDuplicates() throws Exception {
+        JSONArray array = new JSONArray();
+        array.put(new JSONObject().put("id", "a"));
+        array.put("text");
+        array.put(42);
+        array.put(new JSONObject().put("id", "b"));
+        array.put(new JSONObject().put("id", "a"));
+
+        assertTrue(diff.update(array, reader, target));
+
+        assertEquals(Arrays.asList("a", "b"), target.list);
+    }
+
+    /**
+     * @return JSON texts of items with these ids
+     */
+    private static List<String> keys(String... ids) throws Exception {
+        List<String> keys = new ArrayList<>();
+        for (String id : ids) {
+            keys.add(new JSONObject().put("id", id).toString());
+        }
+        return keys;
+    }
+
+    /**
+     * Applies the changes to a list and records them
+     */
+    private static class RecordingTarget implements JsonListDiff.ListTarget<String> {
+
+        final List<String> list = new ArrayList<>();
+
+        final List<String> operations = new ArrayList<>();
+
+        @Override
+        public void remove(int index) {
+            list.remove(index);
+            operations.add("remove " + index);
+        }
+
+        @Override
+        public void insert(String item, int index) {
+            list.add(index, item);
+            operations.add("insert " + item + " " + index);
+        }
+
+        @Override
+        public void replaceAll(List<String> items) {
+            list.clear();
+            list.addAll(items);
+            operations.add("replaceAll");
+        }
+    }
+}
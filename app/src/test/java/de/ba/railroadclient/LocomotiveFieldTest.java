@@ -0,0 +1,44 @@
+package de.ba.railroadclient;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import model.Locomotive;
+import model.LocomotiveDAO;
+import model.LocomotivePOJO;
+
+import static org.junit.Assert.*;
+
+/**
+ * The keys declared by {@link LocomotiveField} must be the names written by {@link LocomotiveDAO}.
+ */
+public class LocomotiveFieldTest {
+
+    @Test
+    public void keys_matchTheDAO() throws Exception {
+        // every field differs from its default value
+        Locomotive locomotive = new LocomotivePOJO();
+        locomotive.setId("7");
+        locomotive.setSpeed(42);
+        locomotive.setDirection(Locomotive.DIRECTION_BACKWARD);
+        locomotive.setName("BR 01");
+        locomotive.setNumber("01 118");
+        locomotive.setHeadLight(true);
+        locomotive.setCabineLighting(true);
+        locomotive.setHornSound(true);
+        locomotive.setDrivingSound(true);
+
+        JSONObject json = LocomotiveDAO.toJSON(locomotive);
+
+        for (LocomotiveField field : LocomotiveField.values()) {
+            assertTrue(field + " is written as " + field.key(), json.has(field.key()));
+            assertEquals(field.toString(), field.get(locomotive), json.get(field.key()));
+            assertSame(field, LocomotiveField.forKey(field.key()));
+        }
+    }
+
+    @Test
+    public void forKey_unknownKey() {
+        assertNull(LocomotiveField.forKey("unknown"));
+    }
+}
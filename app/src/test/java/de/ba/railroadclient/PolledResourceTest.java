@@ -0,0 +1,100 @@
+package de.ba.railroadclient;
+
+import com.android.volley.Request;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import de.ba.railroadclient.benchmark.FakeRequestQueue;
+import model.Locomotive;
+import model.LocomotivePOJO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the changes sent by a {@link PolledResource} before the first state of the server has
+ * arrived. No GET is answered on the JVM, so the resource never receives a state here.
+ */
+public class PolledResourceTest {
+
+    private FakeRequestQueue requestQueue;
+
+    private Locomotive state;
+
+    private PolledResource<Locomotive> resource;
+
+    @Before
+    public void setUp() {
+        requestQueue = new FakeRequestQueue();
+        state = new LocomotivePOJO();
+        resource = new PolledResource<>(requestQueue, null, LocomotiveCodec.RESOURCE_CODEC, state, null);
+    }
+
+    @Test
+    public void setURL_resetsTheStateOfTheOldResource() {
+        resource.setURL("http://railroad1:8095/locomotive");
+        state.setSpeed(40);
+        state.setHeadLight(true);
+
+        resource.setURL("http://railroad2:8095/locomotive");
+
+        assertEquals(0, state.getSpeed());
+        assertFalse(state.isHeadLight());
+        assertFalse(resource.isLoaded());
+    }
+
+    @Test
+    public void change_beforeFirstState_sendsValueEqualToTheBaseline() throws Exception {
+        // the old locomotive stood still, the new one may be moving
+        resource.setURL("http://railroad1:8095/locomotive");
+        resource.setURL("http://railroad2:8095/locomotive");
+
+        final String key = LocomotiveField.SPEED.key();
+        resource.change(key, new PolledResource.Changer<Locomotive>() {
+            @Override
+            public void change(Locomotive locomotive) {
+                locomotive.setSpeed(0);
+            }
+        });
+
+        JSONObject patch = lastPatch();
+        assertEquals(1, patch.length());
+        assertEquals(0, patch.getInt(key));
+    }
+
+    @Test
+    public void change_beforeFirstState_sendsOnlyTheChangedField() throws Exception {
+        resource.setURL("http://railroad1:8095/locomotive");
+
+        final String key = LocomotiveField.HEAD_LIGHT.key();
+        resource.change(key, new PolledResource.Changer<Locomotive>() {
+            @Override
+            public void change(Locomotive locomotive) {
+                locomotive.setHeadLight(true);
+            }
+        });
+
+        JSONObject patch = lastPatch();
+        assertEquals(1, patch.length());
+        assertTrue(patch.getBoolean(key));
+    }
+
+    /**
+     * @return Body of the last PATCH request
+     */
+    private JSONObject lastPatch() throws Exception {
+        List<Request<?>> requests = requestQueue.getRequests();
+        for (int i = requests.size() - 1; i >= 0; i--) {
+            Request<?> request = requests.get(i);
+            if (request.getMethod() == Request.Method.PATCH) {
+                return new JSONObject(new String(request.getBody(), "UTF-8"));
+            }
+        }
+
+        fail("no PATCH request");
+        return null;
+    }
+}
@@ -0,0 +1,145 @@
+package de.ba.railroadclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a {@link PushSubscription} against a {@link StandInPushServer}. The listener is called
+ * on the thread of the subscription, there is no main looper on the JVM.
+ */
+public class PushSubscriptionTest {
+
+    /**
+     * Short retry delay, so a reconnect doesn't slow down the tests
+     */
+    private static final long RETRY_DELAY = 20;
+
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+    private StandInPushServer server;
+
+    private PushSubscription subscription;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInPushServer(true, "{\"speed\":0}");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (subscription != null) {
+            subscription.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void subscribe_connectsAndReceivesPushedStates() throws Exception {
+        subscribe(server);
+
+        assertEquals("connected", events.poll(5, TimeUnit.SECONDS));
+        assertTrue(subscription.isConnected());
+
+        // the initial state is sent with the connection
+        assertEquals("received {\"speed\":0}", events.poll(5, TimeUnit.SECONDS));
+
+        server.push("{\"speed\":42}");
+        assertEquals("received {\"speed\":42}", events.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void namedEvents_areIgnored() throws Exception {
+        subscribe(server);
+        assertEquals("connected", events.poll(5, TimeUnit.SECONDS));
+        assertEquals("received {\"speed\":0}", events.poll(5, TimeUnit.SECONDS));
+
+        // only events without a name carry the state
+        server.push("notice", "{\"speed\":99}");
+        server.push("{\"speed\":42}");
+        assertEquals("received {\"speed\":42}", events.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void lostStream_disconnectsAndReconnects() throws Exception {
+        subscribe(server);
+        assertEquals("connected", events.poll(5, TimeUnit.SECONDS));
+        assertEquals("received {\"speed\":0}", events.poll(5, TimeUnit.SECONDS));
+
+        // the caller polls until the stream is open again
+        server.dropClients();
+        assertEquals("disconnected", events.poll(5, TimeUnit.SECONDS));
+
+        assertEquals("connected", events.poll(5, TimeUnit.SECONDS));
+        assertTrue(subscription.isConnected());
+        assertEquals("received {\"speed\":0}", events.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void serverWithoutPush_keepsPollingWithoutCallbacks() throws Exception {
+        StandInPushServer restServer = new StandInPushServer(false, "{\"speed\":7}");
+        try {
+            subscribe(restServer);
+
+            // wait for a few attempts, the retry delay grows with every one
+            long timeout = System.currentTimeMillis() + 5000;
+            while (restServer.getRequestCount() < 3 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertTrue(restServer.getRequestCount() >= 3);
+
+            // a stream that never opened is not reported as lost
+            assertFalse(subscription.isConnected());
+            assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+        } finally {
+            restServer.close();
+        }
+    }
+
+    @Test
+    public void close_stopsTheListener() throws Exception {
+        subscribe(server);
+        assertEquals("connected", events.poll(5, TimeUnit.SECONDS));
+        assertEquals("received {\"speed\":0}", events.poll(5, TimeUnit.SECONDS));
+
+        subscription.close();
+        assertFalse(subscription.isConnected());
+
+        server.push("{\"speed\":42}");
+        assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Subscribe to the server, every callback is added to {@link #events}
+     */
+    private void subscribe(StandInPushServer server) {
+        subscription = new PushSubscription(server.getRestURL(), new PushSubscription.PushListener() {
+            @Override
+            public void pushConnected() {
+                events.add("connected");
+            }
+
+            @Override
+            public void pushReceived(String json) {
+                events.add("received " + json);
+            }
+
+            @Override
+            public void pushDisconnected() {
+                events.add("disconnected");
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        }, RETRY_DELAY);
+    }
+}
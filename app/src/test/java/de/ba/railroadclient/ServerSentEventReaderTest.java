@@ -0,0 +1,36 @@
+package de.ba.railroadclient;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads an event stream from a string, the stream of a server is read by
+ * {@link PushSubscriptionTest}.
+ */
+public class ServerSentEventReaderTest {
+
+    @Test
+    public void read_dispatchesEventsAndSkipsComments() throws Exception {
+        String stream = ": keep alive\n\n"
+                + "event: locomotive\ndata: {\"speed\":1}\n\n"
+                + "data:{\"speed\":\ndata: 2}\n\n";
+
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        new ServerSentEventReader(new BufferedReader(new StringReader(stream))).read(new ServerSentEventReader.EventHandler() {
+            @Override
+            public void onEvent(String event, String data) {
+                events.add(event + " " + data);
+            }
+        });
+
+        assertEquals("locomotive {\"speed\":1}", events.poll());
+        assertEquals("message {\"speed\":\n2}", events.poll());
+        assertNull(events.poll());
+    }
+}
@@ -0,0 +1,154 @@
+package de.ba.railroadclient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for a locomotive server which pushes its state as Server-Sent Events. Every
+ * client which connects gets an event stream, {@link #push(String)} sends a JSON string to all
+ * connected clients. If the server is created without push support, it answers like a plain
+ * REST server with a JSON object.
+ */
+public class StandInPushServer {
+
+    private final ServerSocket serverSocket;
+
+    private final boolean pushSupported;
+
+    private final String state;
+
+    private final List<OutputStream> clients = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    /**
+     * @param pushSupported true to answer with an event stream
+     * @param state         JSON object which is sent as first event or as plain response
+     * @throws IOException if no local port is available
+     */
+    public StandInPushServer(boolean pushSupported, String state) throws IOException {
+        this.pushSupported = pushSupported;
+        this.state = state;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "stand-in push server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return REST URL of the stand-in locomotive
+     */
+    public String getRestURL() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/locomotive";
+    }
+
+    /**
+     * @return Number of open event streams
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * @return Number of requests answered so far
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Close all open event streams, the server keeps accepting new clients
+     */
+    public void dropClients() throws IOException {
+        for (OutputStream client : clients) {
+            clients.remove(client);
+            client.close();
+        }
+    }
+
+    /**
+     * @param json New state to send to all connected clients
+     */
+    public void push(String json) {
+        send("data: " + json + "\n\n");
+    }
+
+    /**
+     * @param event Name of the event
+     * @param data  Content of the event, sent to all connected clients
+     */
+    public void push(String event, String data) {
+        send("event: " + event + "\ndata: " + data + "\n\n");
+    }
+
+    private void send(String message) {
+        for (OutputStream client : clients) {
+            try {
+                write(client, message);
+            } catch (IOException e) {
+                clients.remove(client);
+            }
+        }
+    }
+
+    /**
+     * Close the server and all streams
+     */
+    public void close() throws IOException {
+        serverSocket.close();
+        for (OutputStream client : clients) {
+            client.close();
+        }
+        clients.clear();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+
+                // skip the request, we answer every request the same way
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    // header line
+                }
+
+                requestCount.incrementAndGet();
+                OutputStream out = socket.getOutputStream();
+                if (pushSupported) {
+                    write(out, "HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\nCache-Control: no-cache\r\nConnection: close\r\n\r\n");
+                    write(out, ": keep alive\n\ndata: " + state + "\n\n");
+                    clients.add(out);
+                } else {
+                    byte[] body = state.getBytes("UTF-8");
+                    write(out, "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + body.length + "\r\nConnection: close\r\n\r\n");
+                    out.write(body);
+                    out.flush();
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // server closed
+            }
+        }
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes("UTF-8"));
+        out.flush();
+    }
+}
@@ -0,0 +1,35 @@
+package de.ba.railroadclient;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import model.SwitchGroup;
+import model.SwitchGroupDAO;
+import model.SwitchGroupPOJO;
+
+import static org.junit.Assert.*;
+
+/**
+ * The keys declared by {@link SwitchGroupField} must be the names written by {@link SwitchGroupDAO}.
+ */
+public class SwitchGroupFieldTest {
+
+    @Test
+    public void keys_matchTheDAO() throws Exception {
+        // every field differs from its default value and from the others
+        SwitchGroup switchGroup = new SwitchGroupPOJO();
+        switchGroup.setId("7");
+        switchGroup.setSwitchTrack1(1);
+        switchGroup.setSwitchTrack2(2);
+        switchGroup.setSwitchTrack3(3);
+        switchGroup.setSwitchTrack4(4);
+
+        JSONObject json = SwitchGroupDAO.toJSON(switchGroup);
+
+        for (SwitchGroupField field : SwitchGroupField.values()) {
+            assertTrue(field + " is written as " + field.key(), json.has(field.key()));
+            assertEquals(field.toString(), field.get(switchGroup), json.get(field.key()));
+            assertSame(field, SwitchGroupField.forKey(field.key()));
+        }
+    }
+}
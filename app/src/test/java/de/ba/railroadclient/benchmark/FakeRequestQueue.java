@@ -0,0 +1,50 @@
+package de.ba.railroadclient.benchmark;
+
+import com.android.volley.Cache;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.NoCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request queue which never sends a request. It keeps the added requests, so a benchmark or a
+ * test can check which requests a code path produces.
+ */
+public class FakeRequestQueue extends RequestQueue {
+
+    private List<Request<?>> requests = new ArrayList<>();
+
+    public FakeRequestQueue() {
+        super(new NoCache(), new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+                throw new VolleyError("fake request queue");
+            }
+        });
+    }
+
+    @Override
+    public <T> Request<T> add(Request<T> request) {
+        requests.add(request);
+        return request;
+    }
+
+    /**
+     * @return Number of requests added since the queue was created
+     */
+    public int getAddedRequests() {
+        return requests.size();
+    }
+
+    /**
+     * @return Requests added since the queue was created, in their order
+     */
+    public List<Request<?>> getRequests() {
+        return requests;
+    }
+}
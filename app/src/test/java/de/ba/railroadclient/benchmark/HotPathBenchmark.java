@@ -0,0 +1,242 @@
+package de.ba.railroadclient.benchmark;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.ba.railroadclient.JsonDelta;
+import de.ba.railroadclient.JsonListDiff;
+import de.ba.railroadclient.JsonPatchPipeline;
+import de.ba.railroadclient.LocomotiveJSONProxy;
+import model.Locomotive;
+import model.LocomotiveDAO;
+import model.LocomotivePOJO;
+import model.LocomotiveServer;
+import model.LocomotiveServerDAO;
+import model.SwitchGroup;
+import model.SwitchGroupDAO;
+import model.SwitchGroupPOJO;
+
+/**
+ * Benchmarks for the hot paths of the client: the DAO parse path used by the proxies and
+ * adapters, and the command path of the proxy setters. The benchmarks only run with
+ * <code>./gradlew testDebugUnitTest -Pbenchmark</code>, the results are written as JSON to
+ * <code>app/build/benchmarks/results.json</code>.
+ * <p>
+ * The streaming decoders {@link de.ba.railroadclient.LocomotiveCodec} and
+ * {@link de.ba.railroadclient.SwitchGroupCodec}, which the proxies use to read polled and pushed
+ * states, are not measured: they are built on <code>android.util.JsonReader</code>, which is a
+ * stub on the JVM. The DAO numbers are no estimate for them.
+ */
+public class HotPathBenchmark {
+
+    /**
+     * Number of servers in the list benchmarks
+     */
+    private static final int SERVER_COUNT = 1000;
+
+    private MicroBenchmark benchmark;
+
+    private String locomotiveJSON;
+
+    private String switchGroupJSON;
+
+    private JSONArray serverList;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("benchmarks are disabled, run with -Pbenchmark", Boolean.getBoolean("railroad.benchmark"));
+
+        benchmark = new MicroBenchmark();
+
+        Locomotive locomotive = new LocomotivePOJO();
+        locomotive.setId("1");
+        locomotive.setName("BR 01");
+        locomotive.setNumber("01 118");
+        locomotive.setSpeed(40);
+        locomotive.setDirection(Locomotive.DIRECTION_FORWARD);
+        locomotive.setHeadLight(true);
+        locomotiveJSON = LocomotiveDAO.toJSON(locomotive).toString();
+
+        SwitchGroup switchGroup = new SwitchGroupPOJO();
+        switchGroup.setId("1");
+        switchGroup.setSwitchTrack1(1);
+        switchGroup.setSwitchTrack3(1);
+        switchGroupJSON = SwitchGroupDAO.toJSON(switchGroup).toString();
+
+        // a list as sent by the RailroadServlet
+        serverList = new JSONArray();
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            JSONObject server = new JSONObject();
+            server.put("restURL", "http://railroad" + i + ":8095/locomotive");
+            server.put("name", "Locomotive " + i);
+            serverList.put(server);
+        }
+    }
+
+    @Test
+    public void hotPaths() throws Exception {
+        daoParsePath();
+        serverListPath();
+        serverListDiffPath();
+        commandPath();
+
+        benchmark.write(new File(System.getProperty("railroad.benchmark.output", "build/benchmarks/results.json")));
+    }
+
+    private void daoParsePath() throws Exception {
+        final Locomotive locomotive = LocomotiveDAO.read(locomotiveJSON);
+        final SwitchGroup switchGroup = SwitchGroupDAO.read(switchGroupJSON);
+
+        benchmark.run("LocomotiveDAO.read", new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                benchmark.consume(LocomotiveDAO.read(locomotiveJSON));
+            }
+        });
+        benchmark.run("LocomotiveDAO.toJSON", new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                benchmark.consume(LocomotiveDAO.toJSON(locomotive));
+            }
+        });
+        benchmark.run("SwitchGroupDAO.read", new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                benchmark.consume(SwitchGroupDAO.read(switchGroupJSON));
+            }
+        });
+        benchmark.run("SwitchGroupDAO.toJSON", new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                benchmark.consume(SwitchGroupDAO.toJSON(switchGroup));
+            }
+        });
+    }
+
+    /**
+     * The parse part of LocomotiveListAdapter.updateListItems. The ArrayAdapter part needs a
+     * device and is not measured here.
+     */
+    private void serverListPath() throws Exception {
+        LocomotiveServer probe = LocomotiveServerDAO.read(serverList.getJSONObject(0).toString());
+        if (probe == null || probe.getRestURL() == null) {
+            benchmark.skip("LocomotiveListAdapter.updateListItems.parse", "LocomotiveServerDAO can not read the generated server list");
+            return;
+        }
+
+        benchmark.run("LocomotiveListAdapter.updateListItems.parse[" + SERVER_COUNT + "]", new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                for (int i = 0; i < serverList.length(); i++) {
+                    JSONObject object = serverList.getJSONObject(i);
+                    benchmark.consume(LocomotiveServerDAO.read(object.toString()));
+                }
+            }
+        });
+    }
+
+    /**
+     * The list update of AbstractJsonArrayAdapter with an ArrayList instead of the adapter:
+     * an unchanged list, and a list where one server comes and goes.
+     */
+    private void serverListDiffPath() throws Exception {
+        LocomotiveServer probe = LocomotiveServerDAO.read(serverList.getJSONObject(0).toString());
+        if (probe == null || probe.getRestURL() == null) {
+            benchmark.skip("JsonListDiff.update", "LocomotiveServerDAO can not read the generated server list");
+            return;
+        }
+
+        final List<LocomotiveServer> list = new ArrayList<>();
+        final JsonListDiff.ListTarget<LocomotiveServer> target = new JsonListDiff.ListTarget<LocomotiveServer>() {
+            @Override
+            public void remove(int index) {
+                list.remove(index);
+            }
+
+            @Override
+            public void insert(LocomotiveServer item, int index) {
+                list.add(index, item);
+            }
+
+            @Override
+            public void replaceAll(List<LocomotiveServer> items) {
+                list.clear();
+                list.addAll(items);
+            }
+        };
+        final JsonListDiff.ItemReader<LocomotiveServer> reader = new JsonListDiff.ItemReader<LocomotiveServer>() {
+            @Override
+            public LocomotiveServer read(String json) {
+                return LocomotiveServerDAO.read(json);
+            }
+        };
+
+        final JsonListDiff<LocomotiveServer> diff = new JsonListDiff<>();
+        diff.update(serverList, reader, target);
+
+        benchmark.run("JsonListDiff.update.unchanged[" + SERVER_COUNT + "]", new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                benchmark.consume(diff.update(serverList, reader, target));
+            }
+        });
+
+        // the part left to the main thread, the keys are computed on the network thread
+        final List<String> keys = JsonListDiff.keys(serverList);
+        benchmark.run("JsonListDiff.update.unchanged.mainThread[" + SERVER_COUNT + "]", new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                benchmark.consume(diff.update(keys, reader, target));
+            }
+        });
+
+        // the same list with one more server
+        final JSONArray grownList = new JSONArray(serverList.toString());
+        JSONObject server = new JSONObject();
+        server.put("restURL", "http://railroad" + SERVER_COUNT + ":8095/locomotive");
+        server.put("name", "Locomotive " + SERVER_COUNT);
+        grownList.put(server);
+
+        benchmark.run("JsonListDiff.update.oneChanged[" + SERVER_COUNT + "]", new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                benchmark.consume(diff.update(grownList, reader, target));
+                benchmark.consume(diff.update(serverList, reader, target));
+            }
+        });
+    }
+
+    private void commandPath() throws Exception {
+        // without a server the proxy computes the delta but doesn't send it
+        final LocomotiveJSONProxy proxy = new LocomotiveJSONProxy(new FakeRequestQueue(), null, null);
+        benchmark.run("LocomotiveJSONProxy.setSpeed", new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                proxy.setSpeed((proxy.getSpeed() + 1) % 100);
+            }
+        });
+
+        // with a server the first delta is sent, all later ones are combined while it is in flight
+        final FakeRequestQueue requestQueue = new FakeRequestQueue();
+        final JsonPatchPipeline pipeline = new JsonPatchPipeline(requestQueue, null);
+        pipeline.setURL("http://railroad:8095/locomotive");
+        final Locomotive locomotive = new LocomotivePOJO();
+
+        JSONObject result = benchmark.run("JsonPatchPipeline.submit", new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                JSONObject before = LocomotiveDAO.toJSON(locomotive);
+                locomotive.setSpeed((locomotive.getSpeed() + 1) % 100);
+                pipeline.submit(JsonDelta.diff(before, LocomotiveDAO.toJSON(locomotive)));
+            }
+        });
+        result.put("requests", requestQueue.getAddedRequests());
+    }
+}
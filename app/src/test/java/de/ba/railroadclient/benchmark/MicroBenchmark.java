@@ -0,0 +1,177 @@
+package de.ba.railroadclient.benchmark;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+
+/**
+ * Minimal benchmark harness in the style of JMH: fixed time warmup and measurement iterations
+ * in the same JVM, throughput in operations per second and allocated bytes per operation.
+ * JMH itself can not run inside the unit tests of an Android module.
+ * <p>
+ * The allocation rate is read from the HotSpot thread MX bean. It is reported as -1 on JVMs
+ * without this bean.
+ */
+public class MicroBenchmark {
+
+    /**
+     * Code to measure, one call is one operation
+     */
+    public interface Operation {
+
+        void run() throws Exception;
+
+    }
+
+    private static final int WARMUP_ITERATIONS = 3;
+
+    private static final int MEASUREMENT_ITERATIONS = 5;
+
+    private static final long ITERATION_NANOS = 500000000L;
+
+    /**
+     * Results of all benchmarks run so far
+     */
+    private final JSONArray results = new JSONArray();
+
+    /**
+     * Used to prevent dead code elimination, see {@link #consume(Object)}
+     */
+    private int sink;
+
+    /**
+     * Run a benchmark and store its result.
+     *
+     * @param name      Name of the benchmark
+     * @param operation Code to measure
+     * @return Result with throughput and allocation rate
+     * @throws Exception if the operation fails
+     */
+    public JSONObject run(String name, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(operation);
+        }
+
+        double[] throughput = new double[MEASUREMENT_ITERATIONS];
+        long operations = 0;
+        long allocated = 0;
+
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            long count = iteration(operation);
+            long time = System.nanoTime() - start;
+            long bytesAfter = allocatedBytes();
+
+            throughput[i] = count * 1e9 / time;
+            operations += count;
+            allocated = bytesBefore < 0 ? -1 : allocated + bytesAfter - bytesBefore;
+        }
+
+        double mean = 0;
+        for (double value : throughput) {
+            mean += value / throughput.length;
+        }
+        double variance = 0;
+        for (double value : throughput) {
+            variance += (value - mean) * (value - mean) / (throughput.length - 1);
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("benchmark", name);
+        result.put("mode", "thrpt");
+        result.put("unit", "ops/s");
+        result.put("score", mean);
+        result.put("scoreError", Math.sqrt(variance));
+        result.put("operations", operations);
+        result.put("allocatedBytesPerOp", allocated < 0 ? -1 : (double) allocated / operations);
+        results.put(result);
+
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * Store a benchmark which could not run
+     *
+     * @param name   Name of the benchmark
+     * @param reason Why the benchmark was skipped
+     */
+    public void skip(String name, String reason) throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("benchmark", name);
+        result.put("skipped", reason);
+        results.put(result);
+
+        System.out.println(result);
+    }
+
+    /**
+     * Keep a result alive, so the JIT can not remove the operation
+     */
+    public void consume(Object value) {
+        sink += System.identityHashCode(value);
+    }
+
+    /**
+     * Write all results as a JSON array
+     *
+     * @param file File to write
+     */
+    public void write(File file) throws IOException, JSONException {
+        file.getParentFile().mkdirs();
+
+        JSONObject report = new JSONObject();
+        report.put("timestamp", System.currentTimeMillis());
+        report.put("java", System.getProperty("java.version"));
+        report.put("sink", sink);
+        report.put("results", results);
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(report.toString(2));
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Run the operation for a fixed time
+     *
+     * @return Number of operations
+     */
+    private long iteration(Operation operation) throws Exception {
+        long end = System.nanoTime() + ITERATION_NANOS;
+        long count = 0;
+
+        while (System.nanoTime() < end) {
+            operation.run();
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * The management API is not part of android.jar, so it is called by reflection.
+     *
+     * @return Bytes allocated by the current thread, or -1 if unknown
+     */
+    private static long allocatedBytes() {
+        try {
+            Object bean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+
+            return (Long) method.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}